@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Resources;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * This class provides the manifests and template data the benchmarks run on.
+ * Usage: File configFile = Manifests.writeWordpressTemplate();
+ * Purpose: The WordPress application is the largest one shipped with the deployer, six YAML
+ *          documents over four resource kinds, so it is used as the realistic workload.
+ */
+final class Manifests {
+
+  static final String TEMPLATE_DATA_JSON =
+      "{\"wordpress_version\":\"4.8-apache\",\"mysql_version\":\"5.6\",\"password\":\"benchmark\"}";
+
+  static final ImmutableMap<String, String> TEMPLATE_DATA =
+      ImmutableMap.of(
+          "wordpress_version", "4.8-apache", "mysql_version", "5.6", "password", "benchmark");
+
+  private Manifests() {}
+
+  /** Returns the WordPress template, with template variables left unrendered. */
+  static String wordpressTemplate() throws IOException {
+    return Resources.toString(Resources.getResource("wordpress.yaml"), UTF_8);
+  }
+
+  /** Writes the WordPress template to a temporary file, deleted when the JVM exits. */
+  static File writeWordpressTemplate() throws IOException {
+    File configFile = File.createTempFile("wordpress", ".yaml");
+    configFile.deleteOnExit();
+    Files.write(configFile.toPath(), wordpressTemplate().getBytes(UTF_8));
+    return configFile;
+  }
+}
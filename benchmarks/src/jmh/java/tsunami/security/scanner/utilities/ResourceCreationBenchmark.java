@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import freemarker.template.TemplateException;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1PersistentVolumeClaim;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1Service;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * This class benchmarks parsing manifests and handing the resources to the Kubernetes API.
+ * Usage: gradle :benchmarks:jmh -Pbenchmarks=ResourceCreationBenchmark
+ * Purpose: Measures KubeJavaClientUtil.createResources, both on an already rendered config and
+ *          streaming from the template, against API stubs that never reach the network. The
+ *          numbers therefore cover only the deployer's own parsing and dispatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResourceCreationBenchmark {
+
+  /** A CoreV1Api that hands created resources to a Blackhole instead of the API server. */
+  private static final class StubCoreV1Api extends CoreV1Api {
+    private Blackhole blackhole;
+
+    @Override
+    public V1Service createNamespacedService(
+        String namespace, V1Service body, String pretty, String dryRun, String fieldManager) {
+      blackhole.consume(body);
+      return body;
+    }
+
+    @Override
+    public V1PersistentVolumeClaim createNamespacedPersistentVolumeClaim(
+        String namespace,
+        V1PersistentVolumeClaim body,
+        String pretty,
+        String dryRun,
+        String fieldManager) {
+      blackhole.consume(body);
+      return body;
+    }
+
+    @Override
+    public V1Pod createNamespacedPod(
+        String namespace, V1Pod body, String pretty, String dryRun, String fieldManager) {
+      blackhole.consume(body);
+      return body;
+    }
+  }
+
+  /** An AppsV1Api that hands created resources to a Blackhole instead of the API server. */
+  private static final class StubAppsV1Api extends AppsV1Api {
+    private Blackhole blackhole;
+
+    @Override
+    public V1Deployment createNamespacedDeployment(
+        String namespace, V1Deployment body, String pretty, String dryRun, String fieldManager) {
+      blackhole.consume(body);
+      return body;
+    }
+  }
+
+  private final StubCoreV1Api coreV1Api = new StubCoreV1Api();
+  private final StubAppsV1Api appsV1Api = new StubAppsV1Api();
+  private KubeJavaClientUtil kubeJavaClientUtil;
+  private File configFile;
+  private String renderedConfig;
+
+  @Setup
+  public void setUp(Blackhole blackhole) throws IOException, TemplateException {
+    coreV1Api.blackhole = blackhole;
+    appsV1Api.blackhole = blackhole;
+    kubeJavaClientUtil = new KubeJavaClientUtil(coreV1Api, appsV1Api);
+    configFile = Manifests.writeWordpressTemplate();
+    renderedConfig = FreeMarkerUtil.replaceTemplates(Manifests.TEMPLATE_DATA, configFile);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void createResourcesFromRendered_singleThread() throws ApiException, IOException {
+    kubeJavaClientUtil.createResources(renderedConfig);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void createResourcesFromRendered_multiThread() throws ApiException, IOException {
+    kubeJavaClientUtil.createResources(renderedConfig);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void createResourcesStreaming_singleThread()
+      throws ApiException, IOException, TemplateException {
+    kubeJavaClientUtil.createResources(Manifests.TEMPLATE_DATA, configFile, false);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void createResourcesStreaming_multiThread()
+      throws ApiException, IOException, TemplateException {
+    kubeJavaClientUtil.createResources(Manifests.TEMPLATE_DATA, configFile, false);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import freemarker.template.TemplateException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * This class benchmarks rendering config files and parsing template data.
+ * Usage: gradle :benchmarks:jmh -Pbenchmarks=TemplateRenderBenchmark
+ * Purpose: Measures FreeMarkerUtil.replaceTemplates and TemplateDataUtil.parseTemplateDataJson,
+ *          which run for every deployment, on one thread and on several threads sharing the
+ *          FreeMarker configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TemplateRenderBenchmark {
+
+  private File configFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    configFile = Manifests.writeWordpressTemplate();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String replaceTemplates_singleThread() throws IOException, TemplateException {
+    return FreeMarkerUtil.replaceTemplates(Manifests.TEMPLATE_DATA, configFile);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String replaceTemplates_multiThread() throws IOException, TemplateException {
+    return FreeMarkerUtil.replaceTemplates(Manifests.TEMPLATE_DATA, configFile);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Map<String, String> parseTemplateDataJson_singleThread() {
+    return TemplateDataUtil.parseTemplateDataJson(Manifests.TEMPLATE_DATA_JSON);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Map<String, String> parseTemplateDataJson_multiThread() {
+    return TemplateDataUtil.parseTemplateDataJson(Manifests.TEMPLATE_DATA_JSON);
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.tsunami.security.scanner.utilities;
+
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Drives a weighted mix of Testbed RPCs over one shared channel and reports throughput and latency
+ * percentiles per RPC.
+ *
+ * <p>With a target rate, calls are started on a fixed schedule and their latency is measured from
+ * the scheduled start, so a slow server is not hidden by the generator backing off. Calls that
+ * would exceed the concurrency limit are counted as dropped. Without a target rate, the given
+ * number of callers each start the next call as soon as the previous one completes.
+ */
+final class LoadGenerator {
+
+  // Calls are cancelled after this, so every call completes and is recorded.
+  private static final long MAX_TRACKED_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  /** One RPC of the mix: how to issue it and what it measured. */
+  private static final class Operation {
+    private final String name;
+    private final int weight;
+    private final BiConsumer<TsunamiTestbedGrpc.TsunamiTestbedStub, StreamObserver<Object>> call;
+    private final Recorder recorder = new Recorder(MAX_TRACKED_LATENCY_NANOS, 3);
+    private final AtomicLong errors = new AtomicLong();
+
+    private Operation(
+        String name,
+        int weight,
+        BiConsumer<TsunamiTestbedGrpc.TsunamiTestbedStub, StreamObserver<Object>> call) {
+      this.name = name;
+      this.weight = weight;
+      this.call = call;
+    }
+  }
+
+  private final TsunamiTestbedGrpc.TsunamiTestbedStub stub;
+  private final List<Operation> operations = new ArrayList<>();
+  private int totalWeight;
+  private final AtomicLong dropped = new AtomicLong();
+
+  LoadGenerator(TsunamiTestbedGrpc.TsunamiTestbedStub stub) {
+    this.stub = stub;
+  }
+
+  /** Adds an RPC to the mix, issued in proportion to its weight. Weights of 0 are skipped. */
+  @SuppressWarnings("unchecked")
+  <RespT> LoadGenerator addOperation(
+      String name,
+      int weight,
+      BiConsumer<TsunamiTestbedGrpc.TsunamiTestbedStub, StreamObserver<RespT>> call) {
+    if (weight < 0) {
+      throw new IllegalArgumentException("Weight of " + name + " must not be negative.");
+    }
+    if (weight > 0) {
+      operations.add(
+          new Operation(
+              name,
+              weight,
+              (stub, observer) -> call.accept(stub, (StreamObserver<RespT>) (Object) observer)));
+      totalWeight += weight;
+    }
+    return this;
+  }
+
+  /**
+   * Runs the mix for the duration and prints the report. If ratePerSecond is positive, calls start
+   * at that rate with at most concurrency in flight; otherwise concurrency callers run back to back.
+   */
+  void run(double ratePerSecond, int concurrency, long durationSeconds)
+      throws InterruptedException {
+    if (operations.isEmpty()) {
+      throw new IllegalArgumentException("The load mix has no operation with a positive weight.");
+    }
+    long startNanos = System.nanoTime();
+    long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+    if (ratePerSecond > 0) {
+      runAtRate(ratePerSecond, concurrency, endNanos);
+    } else {
+      runClosedLoop(concurrency, endNanos);
+    }
+    printReport(System.nanoTime() - startNanos);
+  }
+
+  private void runAtRate(double ratePerSecond, int concurrency, long endNanos)
+      throws InterruptedException {
+    Semaphore inFlight = new Semaphore(concurrency);
+    long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    long firstNanos = System.nanoTime();
+    AtomicLong issued = new AtomicLong();
+    scheduler.scheduleAtFixedRate(
+        () -> {
+          // Catch up on every slot that has passed, so a delayed tick does not lower the rate.
+          long now = System.nanoTime();
+          for (long slot = issued.get();
+              firstNanos + slot * intervalNanos <= now
+                  && firstNanos + slot * intervalNanos < endNanos;
+              slot = issued.incrementAndGet()) {
+            long scheduledNanos = firstNanos + slot * intervalNanos;
+            if (!inFlight.tryAcquire()) {
+              dropped.incrementAndGet();
+              continue;
+            }
+            issue(scheduledNanos, inFlight::release);
+          }
+        },
+        0,
+        Math.max(intervalNanos, TimeUnit.MILLISECONDS.toNanos(1)),
+        TimeUnit.NANOSECONDS);
+    TimeUnit.NANOSECONDS.sleep(Math.max(0, endNanos - System.nanoTime()));
+    scheduler.shutdownNow();
+    // Let calls in flight finish, so their latency is part of the report.
+    inFlight.acquire(concurrency);
+  }
+
+  private void runClosedLoop(int concurrency, long endNanos) throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      issueUntil(endNanos, done);
+    }
+    done.await();
+  }
+
+  private void issueUntil(long endNanos, CountDownLatch done) {
+    if (System.nanoTime() >= endNanos) {
+      done.countDown();
+      return;
+    }
+    issue(System.nanoTime(), () -> issueUntil(endNanos, done));
+  }
+
+  /** Issues one RPC picked from the mix and runs onDone once it completed. */
+  private void issue(long startNanos, Runnable onDone) {
+    Operation operation = pick();
+    operation.call.accept(
+        stub.withDeadlineAfter(MAX_TRACKED_LATENCY_NANOS, TimeUnit.NANOSECONDS),
+        new StreamObserver<Object>() {
+          @Override
+          public void onNext(Object response) {}
+
+          @Override
+          public void onError(Throwable t) {
+            operation.errors.incrementAndGet();
+            complete();
+          }
+
+          @Override
+          public void onCompleted() {
+            complete();
+          }
+
+          private void complete() {
+            operation.recorder.recordValue(
+                Math.min(System.nanoTime() - startNanos, MAX_TRACKED_LATENCY_NANOS));
+            onDone.run();
+          }
+        });
+  }
+
+  private Operation pick() {
+    int ticket = ThreadLocalRandom.current().nextInt(totalWeight);
+    for (Operation operation : operations) {
+      ticket -= operation.weight;
+      if (ticket < 0) {
+        return operation;
+      }
+    }
+    throw new AssertionError("Weights do not add up to " + totalWeight);
+  }
+
+  private void printReport(long elapsedNanos) {
+    double elapsedSeconds = elapsedNanos / 1e9;
+    System.out.printf(
+        "%-20s %10s %8s %10s %10s %10s %10s %10s%n",
+        "RPC", "calls", "errors", "calls/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+    for (Operation operation : operations) {
+      Histogram histogram = operation.recorder.getIntervalHistogram();
+      System.out.printf(
+          "%-20s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+          operation.name,
+          histogram.getTotalCount(),
+          operation.errors.get(),
+          histogram.getTotalCount() / elapsedSeconds,
+          toMillis(histogram.getValueAtPercentile(50)),
+          toMillis(histogram.getValueAtPercentile(90)),
+          toMillis(histogram.getValueAtPercentile(99)),
+          toMillis(histogram.getMaxValue()));
+    }
+    if (dropped.get() > 0) {
+      System.out.println(
+          dropped.get() + " calls were not started because the concurrency limit was reached.");
+    }
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  /** Parses a mix such as "listApplications=8,getApplication=2" into weights by RPC name. */
+  static Map<String, Integer> parseMix(String mix) {
+    Map<String, Integer> weights = new LinkedHashMap<>();
+    for (String entry : mix.split(",")) {
+      if (entry.trim().isEmpty()) {
+        continue;
+      }
+      String[] nameAndWeight = entry.split("=", 2);
+      if (nameAndWeight.length != 2) {
+        throw new IllegalArgumentException("Expected <rpc>=<weight> in load mix, got: " + entry);
+      }
+      weights.put(nameAndWeight[0].trim(), Integer.parseInt(nameAndWeight[1].trim()));
+    }
+    return weights;
+  }
+}
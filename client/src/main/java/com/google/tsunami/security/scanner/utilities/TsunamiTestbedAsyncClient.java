@@ -0,0 +1,240 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A client library for the Testbed API, meant to be embedded in a scanner process.
+ *
+ * <p>One instance holds a single long-lived channel that all calls share, so it should be created
+ * once and closed when the process no longer needs it. Every call returns a future and is given a
+ * deadline. GetApplication endpoints are cached for a short time, and concurrent lookups of the same
+ * application share one call.
+ */
+public final class TsunamiTestbedAsyncClient implements AutoCloseable {
+
+  public static final Duration DEFAULT_DEADLINE = Duration.ofSeconds(30);
+  public static final Duration DEFAULT_ENDPOINT_CACHE_TTL = Duration.ofSeconds(30);
+
+  private static final long MAX_CACHED_ENDPOINTS = 1024;
+
+  private final ManagedChannel channel;
+  private final TsunamiTestbedGrpc.TsunamiTestbedFutureStub stub;
+  private final TsunamiTestbedGrpc.TsunamiTestbedStub streamingStub;
+  private final Duration deadline;
+  private final Cache<GetApplicationRequest, ListenableFuture<GetApplicationResponse>>
+      endpointCache;
+
+  TsunamiTestbedAsyncClient(ManagedChannel channel, Duration deadline, Duration endpointCacheTtl) {
+    this.channel = channel;
+    this.stub = TsunamiTestbedGrpc.newFutureStub(channel);
+    this.streamingStub = TsunamiTestbedGrpc.newStub(channel);
+    this.deadline = deadline;
+    this.endpointCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_ENDPOINTS)
+            .expireAfterWrite(endpointCacheTtl.toNanos(), TimeUnit.NANOSECONDS)
+            .build();
+  }
+
+  /** Creates a client with the default deadline and endpoint cache TTL. */
+  public static TsunamiTestbedAsyncClient create(String address, String apiKey, String authToken) {
+    return create(address, apiKey, authToken, DEFAULT_DEADLINE, DEFAULT_ENDPOINT_CACHE_TTL);
+  }
+
+  /**
+   * Creates a client of the server at address. The API key and auth token are attached to every
+   * call if they are not empty. An endpointCacheTtl of zero disables endpoint caching.
+   */
+  public static TsunamiTestbedAsyncClient create(
+      String address,
+      String apiKey,
+      String authToken,
+      Duration deadline,
+      Duration endpointCacheTtl) {
+    return new TsunamiTestbedAsyncClient(
+        newChannel(address, apiKey, authToken), deadline, endpointCacheTtl);
+  }
+
+  /** Returns a plaintext channel to address which attaches the given credentials to every call. */
+  static ManagedChannel newChannel(String address, String apiKey, String authToken) {
+    return ManagedChannelBuilder.forTarget(address)
+        .usePlaintext(true)
+        .intercept(new Interceptor(apiKey, authToken))
+        .build();
+  }
+
+  public ListenableFuture<CreateDeploymentResponse> createDeployment(
+      CreateDeploymentRequest request) {
+    return withDeadline().createDeployment(request);
+  }
+
+  /**
+   * Creates a deployment and passes its progress to the observer as the server reports it, ending
+   * with COMPLETED or FAILED. The call is held by the server until then, so its deadline is the
+   * given timeout plus the client's default deadline.
+   */
+  public void createDeploymentWithProgress(
+      CreateDeploymentRequest request,
+      Duration timeout,
+      StreamObserver<DeploymentProgress> progressObserver) {
+    streamingStub
+        .withDeadlineAfter(deadline.plus(timeout).toNanos(), TimeUnit.NANOSECONDS)
+        .createDeploymentWithProgress(request, progressObserver);
+  }
+
+  public ListenableFuture<CreateDeploymentsResponse> createDeployments(
+      CreateDeploymentsRequest request) {
+    return withDeadline().createDeployments(request);
+  }
+
+  public ListenableFuture<ListApplicationsResponse> listApplications(
+      ListApplicationsRequest request) {
+    return withDeadline().listApplications(request);
+  }
+
+  /**
+   * Returns the endpoint of the application, from the cache if it was looked up recently. Failed
+   * lookups are not cached.
+   */
+  public ListenableFuture<GetApplicationResponse> getApplication(GetApplicationRequest request) {
+    ListenableFuture<GetApplicationResponse> response;
+    try {
+      response = endpointCache.get(request, () -> withDeadline().getApplication(request));
+    } catch (ExecutionException e) {
+      return Futures.immediateFailedFuture(e.getCause());
+    }
+    ListenableFuture<GetApplicationResponse> cached = response;
+    Futures.addCallback(
+        cached,
+        new FutureCallback<GetApplicationResponse>() {
+          @Override
+          public void onSuccess(GetApplicationResponse result) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            endpointCache.asMap().remove(request, cached);
+          }
+        },
+        directExecutor());
+    // Callers cancelling their lookup must not cancel the one shared through the cache.
+    return Futures.nonCancellationPropagating(cached);
+  }
+
+  /**
+   * Returns the endpoint of the application once its ingress IP and port are assigned. The call is
+   * held by the server, so its deadline is the request's timeout plus the client's default
+   * deadline.
+   */
+  public ListenableFuture<WaitForApplicationReadyResponse> waitForApplicationReady(
+      WaitForApplicationReadyRequest request) {
+    return stub.withDeadlineAfter(
+            deadline.plusSeconds(request.getTimeoutSeconds()).toNanos(), TimeUnit.NANOSECONDS)
+        .waitForApplicationReady(request);
+  }
+
+  public ListenableFuture<GetDeploymentStatusResponse> getDeploymentStatus(
+      GetDeploymentStatusRequest request) {
+    return withDeadline().getDeploymentStatus(request);
+  }
+
+  public ListenableFuture<DeleteDeploymentResponse> deleteDeployment(
+      DeleteDeploymentRequest request) {
+    return withDeadline().deleteDeployment(request);
+  }
+
+  public ListenableFuture<AcquireApplicationResponse> acquireApplication(
+      AcquireApplicationRequest request) {
+    return withDeadline().acquireApplication(request);
+  }
+
+  public ListenableFuture<ReleaseApplicationResponse> releaseApplication(
+      ReleaseApplicationRequest request) {
+    return withDeadline().releaseApplication(request);
+  }
+
+  private TsunamiTestbedGrpc.TsunamiTestbedFutureStub withDeadline() {
+    return stub.withDeadlineAfter(deadline.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  /** Shuts the channel down, letting calls in flight finish. */
+  @Override
+  public void close() {
+    channel.shutdown();
+  }
+
+  static final class Interceptor implements ClientInterceptor {
+    private static final Logger LOGGER = Logger.getLogger("InfoLogging");
+
+    private static final Metadata.Key<String> API_KEY_HEADER =
+        Metadata.Key.of("x-api-key", Metadata.ASCII_STRING_MARSHALLER);
+    private static final Metadata.Key<String> AUTHORIZATION_HEADER =
+        Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final String apiKey;
+    private final String authToken;
+
+    public Interceptor(String apiKey, String authToken) {
+      this.apiKey = apiKey;
+      this.authToken = authToken;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+      LOGGER.fine(() -> "Intercepted " + method.getFullMethodName());
+      ClientCall<ReqT, RespT> call = next.newCall(method, callOptions);
+
+      call =
+          new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(call) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+              if (apiKey != null && !apiKey.isEmpty()) {
+                LOGGER.fine("Attaching API key");
+                headers.put(API_KEY_HEADER, apiKey);
+              }
+              if (authToken != null && !authToken.isEmpty()) {
+                LOGGER.fine("Attaching auth token");
+                headers.put(AUTHORIZATION_HEADER, "Bearer " + authToken);
+              }
+              super.start(responseListener, headers);
+            }
+          };
+      return call;
+    }
+  }
+}
@@ -16,26 +16,24 @@
 
 package com.google.tsunami.security.scanner.utilities;
 
+import com.beust.jcommander.DynamicParameter;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
-import com.google.protobuf.Empty;
-import io.grpc.CallOptions;
 import io.grpc.Channel;
-import io.grpc.ClientCall;
-import io.grpc.ClientInterceptor;
-import io.grpc.ClientInterceptors;
-import io.grpc.ForwardingClientCall;
-import io.grpc.ManagedChannelBuilder;
-import io.grpc.Metadata;
-import io.grpc.MethodDescriptor;
-import java.util.logging.Logger;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /** A client application which calls the Testbed API over gRPC. */
 public final class TsunamiTestbedClient {
 
   private static final String DEFAULT_ADDRESS = "localhost:8000";
+  private static final List<String> LOAD_TEST_RPCS =
+      Arrays.asList("listApplications", "getApplication", "createDeployment");
 
   @Parameters
   private static class TsunamiTestbedClientArgs {
@@ -53,7 +51,10 @@ public final class TsunamiTestbedClient {
     @Parameter(
         names = "--operation",
         description =
-            "The tsunamiTestbed operation to perform: createDeployment|listApplications|getApplication")
+            "The tsunamiTestbed operation to perform:"
+                + " createDeployment|createDeploymentWithProgress|listApplications|getApplication"
+                + "|waitForApplicationReady|getDeploymentStatus|deleteDeployment"
+                + "|acquireApplication|releaseApplication|loadTest")
     public String operation = "listApplications";
 
     @Parameter(names = "--app", description = "Application's name.")
@@ -67,9 +68,68 @@ public final class TsunamiTestbedClient {
         description = "Template Data needs to be substituted in Json String type.")
     public String templateData = "\"{'jupyter_version':'notebook-6.0.3'}\"";
 
+    @DynamicParameter(
+        names = "--template_value",
+        description =
+            "Template data as key=value, repeated per key. Used instead of --template_data if set.")
+    public Map<String, String> templateValues = new LinkedHashMap<>();
+
     @Parameter(names = "--deployer_job_path", description = "Path for deployer job yaml file.")
     public String deployerJobPath = ".";
 
+    @Parameter(
+        names = "--namespace",
+        description = "Namespace of the application. If empty, the server picks one.")
+    public String namespace = "";
+
+    @Parameter(names = "--job_id", description = "Unique id of the deployer job.")
+    public String jobId;
+
+    @Parameter(
+        names = "--ttl_seconds",
+        description = "Seconds after which the deployment is deleted, 0 uses the server default.")
+    public long ttlSeconds = 0;
+
+    @Parameter(names = "--lease_id", description = "Id of the lease to release.")
+    public String leaseId;
+
+    @Parameter(
+        names = "--page_size",
+        description = "Number of applications listed per page, 0 lists all of them.")
+    public int pageSize = 0;
+
+    @Parameter(
+        names = "--label_selector",
+        description = "Label selector for the applications to list.")
+    public String labelSelector = "";
+
+    @Parameter(
+        names = "--timeout_seconds",
+        description = "Seconds waitForApplicationReady waits at most, 0 uses the server maximum.")
+    public long timeoutSeconds = 0;
+
+    @Parameter(
+        names = "--load_mix",
+        description =
+            "Weights of the RPCs issued by loadTest, e.g."
+                + " listApplications=8,getApplication=2,createDeployment=0.")
+    public String loadMix = "listApplications=8,getApplication=2,createDeployment=0";
+
+    @Parameter(
+        names = "--load_rate",
+        description =
+            "Calls per second started by loadTest. If 0, --load_concurrency callers run back to"
+                + " back.")
+    public double loadRate = 0;
+
+    @Parameter(
+        names = "--load_concurrency",
+        description = "Maximum number of calls in flight during loadTest.")
+    public int loadConcurrency = 16;
+
+    @Parameter(names = "--load_duration_seconds", description = "Duration of loadTest.")
+    public long loadDurationSeconds = 60;
+
     @Parameter(
         names = {"--help", "-h"},
         description = "Print parameters and description.",
@@ -99,101 +159,259 @@ public final class TsunamiTestbedClient {
     String configPath = clientArgs.configPath;
     String templateData = clientArgs.templateData;
     String deployerJobPath = clientArgs.deployerJobPath;
+    String namespace = clientArgs.namespace;
+    String jobId = clientArgs.jobId;
+    String leaseId = clientArgs.leaseId;
+    long ttlSeconds = clientArgs.ttlSeconds;
+    int pageSize = clientArgs.pageSize;
+    String labelSelector = clientArgs.labelSelector;
 
     // Create gRPC stub.
+    Channel channel = createTestbedChannel(address, apiKey, authToken);
     TsunamiTestbedGrpc.TsunamiTestbedBlockingStub testbed =
-        createTestbedStub(address, apiKey, authToken);
+        TsunamiTestbedGrpc.newBlockingStub(channel);
 
     switch (operation) {
-      case "createDevelopment":
-        createDeployment(testbed, appName, configPath, templateData, deployerJobPath);
+      case "createDeployment":
+        createDeployment(
+            testbed,
+            appName,
+            namespace,
+            configPath,
+            templateData,
+            clientArgs.templateValues,
+            deployerJobPath,
+            ttlSeconds);
+        break;
+      case "createDeploymentWithProgress":
+        createDeploymentWithProgress(
+            testbed,
+            appName,
+            namespace,
+            configPath,
+            templateData,
+            clientArgs.templateValues,
+            deployerJobPath,
+            ttlSeconds);
         break;
       case "listApplications":
-        listApplications(testbed);
+        listApplications(testbed, namespace, pageSize, labelSelector);
         break;
       case "getApplication":
-        getApplication(testbed, appName);
+        getApplication(testbed, namespace, appName);
+        break;
+      case "waitForApplicationReady":
+        waitForApplicationReady(testbed, namespace, appName, clientArgs.timeoutSeconds);
+        break;
+      case "getDeploymentStatus":
+        getDeploymentStatus(testbed, namespace, jobId);
+        break;
+      case "deleteDeployment":
+        deleteDeployment(testbed, namespace, jobId);
+        break;
+      case "acquireApplication":
+        acquireApplication(testbed, appName, templateData);
+        break;
+      case "releaseApplication":
+        releaseApplication(testbed, leaseId);
+        break;
+      case "loadTest":
+        loadTest(TsunamiTestbedGrpc.newStub(channel), clientArgs);
         break;
+      default:
+        throw new IllegalArgumentException("Unknown operation: " + operation);
     }
   }
 
   static void createDeployment(
       TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed,
       String appName,
+      String namespace,
       String configPath,
       String templateData,
-      String deployerJobPath) {
+      Map<String, String> templateValues,
+      String deployerJobPath,
+      long ttlSeconds) {
     CreateDeploymentRequest createDeploymentRequest =
         CreateDeploymentRequest.newBuilder()
             .setApplication(appName)
+            .setNamespace(namespace)
             .setConfigPath(configPath)
             .setTemplateData(templateData)
+            .putAllTemplateValues(templateValues)
             .setDeployerJobPath(deployerJobPath)
+            .setTtlSeconds(ttlSeconds)
             .build();
     CreateDeploymentResponse response = tsunamiTestbed.createDeployment(createDeploymentRequest);
     System.out.println(response);
   }
 
-  static void listApplications(TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed) {
-    ListApplicationsResponse response = tsunamiTestbed.listApplications(Empty.getDefaultInstance());
-    System.out.println(response);
+  static void createDeploymentWithProgress(
+      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed,
+      String appName,
+      String namespace,
+      String configPath,
+      String templateData,
+      Map<String, String> templateValues,
+      String deployerJobPath,
+      long ttlSeconds) {
+    CreateDeploymentRequest createDeploymentRequest =
+        CreateDeploymentRequest.newBuilder()
+            .setApplication(appName)
+            .setNamespace(namespace)
+            .setConfigPath(configPath)
+            .setTemplateData(templateData)
+            .putAllTemplateValues(templateValues)
+            .setDeployerJobPath(deployerJobPath)
+            .setTtlSeconds(ttlSeconds)
+            .build();
+    Iterator<DeploymentProgress> progress =
+        tsunamiTestbed.createDeploymentWithProgress(createDeploymentRequest);
+    while (progress.hasNext()) {
+      System.out.println(progress.next());
+    }
+  }
+
+  static void listApplications(
+      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed,
+      String namespace,
+      int pageSize,
+      String labelSelector) {
+    String pageToken = "";
+    do {
+      ListApplicationsRequest listApplicationsRequest =
+          ListApplicationsRequest.newBuilder()
+              .setNamespace(namespace)
+              .setPageSize(pageSize)
+              .setPageToken(pageToken)
+              .setLabelSelector(labelSelector)
+              .build();
+      ListApplicationsResponse response = tsunamiTestbed.listApplications(listApplicationsRequest);
+      System.out.println(response);
+      pageToken = response.getNextPageToken();
+    } while (!pageToken.isEmpty());
   }
 
   static void getApplication(
-      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed, String appName) {
+      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed,
+      String namespace,
+      String appName) {
     GetApplicationRequest getApplicationRequest =
-        GetApplicationRequest.newBuilder().setApplication(appName).build();
+        GetApplicationRequest.newBuilder().setNamespace(namespace).setApplication(appName).build();
     GetApplicationResponse response = tsunamiTestbed.getApplication(getApplicationRequest);
     System.out.println(response);
   }
 
-  private static final class Interceptor implements ClientInterceptor {
-    private static Logger LOGGER = Logger.getLogger("InfoLogging");
+  static void waitForApplicationReady(
+      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed,
+      String namespace,
+      String appName,
+      long timeoutSeconds) {
+    WaitForApplicationReadyRequest waitForApplicationReadyRequest =
+        WaitForApplicationReadyRequest.newBuilder()
+            .setNamespace(namespace)
+            .setApplication(appName)
+            .setTimeoutSeconds(timeoutSeconds)
+            .build();
+    WaitForApplicationReadyResponse response =
+        tsunamiTestbed.waitForApplicationReady(waitForApplicationReadyRequest);
+    System.out.println(response);
+  }
 
-    private static Metadata.Key<String> API_KEY_HEADER =
-        Metadata.Key.of("x-api-key", Metadata.ASCII_STRING_MARSHALLER);
-    private static Metadata.Key<String> AUTHORIZATION_HEADER =
-        Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+  static void getDeploymentStatus(
+      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed,
+      String namespace,
+      String jobId) {
+    GetDeploymentStatusRequest getDeploymentStatusRequest =
+        GetDeploymentStatusRequest.newBuilder().setNamespace(namespace).setJobId(jobId).build();
+    GetDeploymentStatusResponse response =
+        tsunamiTestbed.getDeploymentStatus(getDeploymentStatusRequest);
+    System.out.println(response);
+  }
 
-    private final String apiKey;
-    private final String authToken;
+  static void deleteDeployment(
+      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed,
+      String namespace,
+      String jobId) {
+    DeleteDeploymentRequest deleteDeploymentRequest =
+        DeleteDeploymentRequest.newBuilder().setNamespace(namespace).setJobId(jobId).build();
+    DeleteDeploymentResponse response = tsunamiTestbed.deleteDeployment(deleteDeploymentRequest);
+    System.out.println(response);
+  }
 
-    public Interceptor(String apiKey, String authToken) {
-      this.apiKey = apiKey;
-      this.authToken = authToken;
-    }
+  static void acquireApplication(
+      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed,
+      String appName,
+      String templateData) {
+    AcquireApplicationRequest acquireApplicationRequest =
+        AcquireApplicationRequest.newBuilder()
+            .setApplication(appName)
+            .setTemplateData(templateData)
+            .build();
+    AcquireApplicationResponse response =
+        tsunamiTestbed.acquireApplication(acquireApplicationRequest);
+    System.out.println(response);
+  }
 
-    @Override
-    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
-        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
-      LOGGER.info("Intercepted " + method.getFullMethodName());
-      ClientCall<ReqT, RespT> call = next.newCall(method, callOptions);
-
-      call =
-          new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(call) {
-            @Override
-            public void start(Listener<RespT> responseListener, Metadata headers) {
-              if (apiKey != null && !apiKey.isEmpty()) {
-                LOGGER.info("Attaching API Key: " + apiKey);
-                headers.put(API_KEY_HEADER, apiKey);
-              }
-              if (authToken != null && !authToken.isEmpty()) {
-                System.out.println("Attaching auth token");
-                headers.put(AUTHORIZATION_HEADER, "Bearer " + authToken);
-              }
-              super.start(responseListener, headers);
-            }
-          };
-      return call;
-    }
+  static void releaseApplication(
+      TsunamiTestbedGrpc.TsunamiTestbedBlockingStub tsunamiTestbed, String leaseId) {
+    ReleaseApplicationRequest releaseApplicationRequest =
+        ReleaseApplicationRequest.newBuilder().setLeaseId(leaseId).build();
+    ReleaseApplicationResponse response =
+        tsunamiTestbed.releaseApplication(releaseApplicationRequest);
+    System.out.println(response);
   }
 
-  static TsunamiTestbedGrpc.TsunamiTestbedBlockingStub createTestbedStub(
-      String address, String apiKey, String authToken) {
-    Channel channel = ManagedChannelBuilder.forTarget(address).usePlaintext(true).build();
+  static void loadTest(
+      TsunamiTestbedGrpc.TsunamiTestbedStub tsunamiTestbed, TsunamiTestbedClientArgs clientArgs)
+      throws InterruptedException {
+    ListApplicationsRequest listApplicationsRequest =
+        ListApplicationsRequest.newBuilder()
+            .setNamespace(clientArgs.namespace)
+            .setPageSize(clientArgs.pageSize)
+            .setLabelSelector(clientArgs.labelSelector)
+            .build();
+    GetApplicationRequest getApplicationRequest =
+        GetApplicationRequest.newBuilder()
+            .setNamespace(clientArgs.namespace)
+            .setApplication(clientArgs.app)
+            .build();
+    CreateDeploymentRequest createDeploymentRequest =
+        CreateDeploymentRequest.newBuilder()
+            .setApplication(clientArgs.app)
+            .setNamespace(clientArgs.namespace)
+            .setConfigPath(clientArgs.configPath)
+            .setTemplateData(clientArgs.templateData)
+            .putAllTemplateValues(clientArgs.templateValues)
+            .setDeployerJobPath(clientArgs.deployerJobPath)
+            .setTtlSeconds(clientArgs.ttlSeconds)
+            .build();
 
-    channel = ClientInterceptors.intercept(channel, new Interceptor(apiKey, authToken));
+    Map<String, Integer> weights = LoadGenerator.parseMix(clientArgs.loadMix);
+    for (String name : weights.keySet()) {
+      if (!LOAD_TEST_RPCS.contains(name)) {
+        throw new IllegalArgumentException("Unsupported RPC in load mix: " + name);
+      }
+    }
+    LoadGenerator loadGenerator =
+        new LoadGenerator(tsunamiTestbed)
+            .<ListApplicationsResponse>addOperation(
+                "listApplications",
+                weights.getOrDefault("listApplications", 0),
+                (stub, observer) -> stub.listApplications(listApplicationsRequest, observer))
+            .<GetApplicationResponse>addOperation(
+                "getApplication",
+                weights.getOrDefault("getApplication", 0),
+                (stub, observer) -> stub.getApplication(getApplicationRequest, observer))
+            .<CreateDeploymentResponse>addOperation(
+                "createDeployment",
+                weights.getOrDefault("createDeployment", 0),
+                (stub, observer) -> stub.createDeployment(createDeploymentRequest, observer));
+    loadGenerator.run(
+        clientArgs.loadRate, clientArgs.loadConcurrency, clientArgs.loadDurationSeconds);
+  }
 
-    return TsunamiTestbedGrpc.newBlockingStub(channel);
+  static Channel createTestbedChannel(String address, String apiKey, String authToken) {
+    return TsunamiTestbedAsyncClient.newChannel(address, apiKey, authToken);
   }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LoadGeneratorTest {
+
+  /** Counts and answers ListApplications and GetApplication calls. */
+  private static final class FakeTestbed extends TsunamiTestbedGrpc.TsunamiTestbedImplBase {
+    private final AtomicInteger listApplicationsCalls = new AtomicInteger();
+    private final AtomicInteger getApplicationCalls = new AtomicInteger();
+
+    @Override
+    public void listApplications(
+        ListApplicationsRequest request,
+        StreamObserver<ListApplicationsResponse> responseObserver) {
+      listApplicationsCalls.incrementAndGet();
+      responseObserver.onNext(ListApplicationsResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getApplication(
+        GetApplicationRequest request, StreamObserver<GetApplicationResponse> responseObserver) {
+      getApplicationCalls.incrementAndGet();
+      responseObserver.onNext(GetApplicationResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+
+  private final FakeTestbed testbed = new FakeTestbed();
+  private Server server;
+  private ManagedChannel channel;
+
+  @Before
+  public void setUp() throws Exception {
+    String serverName = "load-generator-" + UUID.randomUUID();
+    server = InProcessServerBuilder.forName(serverName).addService(testbed).build().start();
+    channel = InProcessChannelBuilder.forName(serverName).build();
+  }
+
+  @After
+  public void tearDown() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private LoadGenerator newLoadGenerator(Map<String, Integer> weights) {
+    return new LoadGenerator(TsunamiTestbedGrpc.newStub(channel))
+        .<ListApplicationsResponse>addOperation(
+            "listApplications",
+            weights.getOrDefault("listApplications", 0),
+            (stub, observer) ->
+                stub.listApplications(ListApplicationsRequest.getDefaultInstance(), observer))
+        .<GetApplicationResponse>addOperation(
+            "getApplication",
+            weights.getOrDefault("getApplication", 0),
+            (stub, observer) ->
+                stub.getApplication(GetApplicationRequest.getDefaultInstance(), observer));
+  }
+
+  @Test
+  public void parseMix_whenWellFormed_returnsWeightsInOrder() {
+    Map<String, Integer> weights =
+        LoadGenerator.parseMix(" listApplications = 8 ,getApplication=2,,createDeployment=0");
+
+    assertThat(weights)
+        .containsExactly("listApplications", 8, "getApplication", 2, "createDeployment", 0)
+        .inOrder();
+  }
+
+  @Test
+  public void parseMix_whenEntryHasNoWeight_throwsIllegalArgumentException() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> LoadGenerator.parseMix("listApplications=8,getApplication"));
+  }
+
+  @Test
+  public void parseMix_whenWeightIsNotANumber_throwsIllegalArgumentException() {
+    assertThrows(
+        IllegalArgumentException.class, () -> LoadGenerator.parseMix("listApplications=many"));
+  }
+
+  @Test
+  public void addOperation_whenWeightNegative_throwsIllegalArgumentException() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> newLoadGenerator(LoadGenerator.parseMix("listApplications=-1")));
+  }
+
+  @Test
+  public void run_whenAllWeightsZero_throwsIllegalArgumentException() {
+    LoadGenerator loadGenerator =
+        newLoadGenerator(LoadGenerator.parseMix("listApplications=0,getApplication=0"));
+
+    assertThrows(IllegalArgumentException.class, () -> loadGenerator.run(0, 1, 1));
+  }
+
+  @Test
+  public void run_closedLoop_issuesOnlyOperationsWithPositiveWeight() throws Exception {
+    LoadGenerator loadGenerator =
+        newLoadGenerator(LoadGenerator.parseMix("listApplications=1,getApplication=0"));
+
+    loadGenerator.run(0, 2, 1);
+
+    assertThat(testbed.listApplicationsCalls.get()).isGreaterThan(0);
+    assertThat(testbed.getApplicationCalls.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void run_atRate_issuesCallsOfEveryWeightedOperation() throws Exception {
+    LoadGenerator loadGenerator =
+        newLoadGenerator(LoadGenerator.parseMix("listApplications=1,getApplication=1"));
+
+    loadGenerator.run(200, 4, 1);
+
+    assertThat(testbed.listApplicationsCalls.get()).isGreaterThan(0);
+    assertThat(testbed.getApplicationCalls.get()).isGreaterThan(0);
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TsunamiTestbedAsyncClientTest {
+
+  private static final Metadata.Key<String> API_KEY_HEADER =
+      Metadata.Key.of("x-api-key", Metadata.ASCII_STRING_MARSHALLER);
+  private static final Metadata.Key<String> AUTHORIZATION_HEADER =
+      Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+  /** Answers ListApplications and never answers GetDeploymentStatus. */
+  private static final class FakeTestbed extends TsunamiTestbedGrpc.TsunamiTestbedImplBase {
+    @Override
+    public void listApplications(
+        ListApplicationsRequest request,
+        StreamObserver<ListApplicationsResponse> responseObserver) {
+      responseObserver.onNext(ListApplicationsResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getDeploymentStatus(
+        GetDeploymentStatusRequest request,
+        StreamObserver<GetDeploymentStatusResponse> responseObserver) {}
+  }
+
+  private final String serverName = "testbed-" + UUID.randomUUID();
+  // Headers of every call the server received, in order.
+  private final List<Metadata> receivedHeaders = new CopyOnWriteArrayList<>();
+  private Server server;
+
+  @Before
+  public void setUp() throws Exception {
+    ServerInterceptor recordHeaders =
+        new ServerInterceptor() {
+          @Override
+          public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+              ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            receivedHeaders.add(headers);
+            return next.startCall(call, headers);
+          }
+        };
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .addService(ServerInterceptors.intercept(new FakeTestbed(), recordHeaders))
+            .build()
+            .start();
+  }
+
+  @After
+  public void tearDown() {
+    server.shutdownNow();
+  }
+
+  private ManagedChannel newChannel(String apiKey, String authToken) {
+    return InProcessChannelBuilder.forName(serverName)
+        .intercept(new TsunamiTestbedAsyncClient.Interceptor(apiKey, authToken))
+        .build();
+  }
+
+  @Test
+  public void listApplications_withApiKeyAndAuthToken_attachesHeaders() throws Exception {
+    try (TsunamiTestbedAsyncClient client =
+        new TsunamiTestbedAsyncClient(
+            newChannel("secret", "token"), Duration.ofSeconds(5), Duration.ZERO)) {
+      client
+          .listApplications(ListApplicationsRequest.getDefaultInstance())
+          .get(5, TimeUnit.SECONDS);
+    }
+
+    assertThat(receivedHeaders).hasSize(1);
+    assertThat(receivedHeaders.get(0).get(API_KEY_HEADER)).isEqualTo("secret");
+    assertThat(receivedHeaders.get(0).get(AUTHORIZATION_HEADER)).isEqualTo("Bearer token");
+  }
+
+  @Test
+  public void listApplications_withoutCredentials_attachesNoHeaders() throws Exception {
+    try (TsunamiTestbedAsyncClient client =
+        new TsunamiTestbedAsyncClient(newChannel("", null), Duration.ofSeconds(5), Duration.ZERO)) {
+      client
+          .listApplications(ListApplicationsRequest.getDefaultInstance())
+          .get(5, TimeUnit.SECONDS);
+    }
+
+    assertThat(receivedHeaders).hasSize(1);
+    assertThat(receivedHeaders.get(0).containsKey(API_KEY_HEADER)).isFalse();
+    assertThat(receivedHeaders.get(0).containsKey(AUTHORIZATION_HEADER)).isFalse();
+  }
+
+  @Test
+  public void getDeploymentStatus_whenServerDoesNotAnswer_failsAfterDeadline() {
+    try (TsunamiTestbedAsyncClient client =
+        new TsunamiTestbedAsyncClient(
+            newChannel(null, null), Duration.ofMillis(100), Duration.ZERO)) {
+      ExecutionException e =
+          assertThrows(
+              ExecutionException.class,
+              () ->
+                  client
+                      .getDeploymentStatus(GetDeploymentStatusRequest.getDefaultInstance())
+                      .get(5, TimeUnit.SECONDS));
+
+      assertThat(e).hasCauseThat().isInstanceOf(StatusRuntimeException.class);
+      assertThat(((StatusRuntimeException) e.getCause()).getStatus().getCode())
+          .isEqualTo(Status.Code.DEADLINE_EXCEEDED);
+    }
+  }
+
+  @Test
+  public void calls_shareOneChannelUntilClosed() throws Exception {
+    ManagedChannel channel = newChannel("secret", null);
+    TsunamiTestbedAsyncClient client =
+        new TsunamiTestbedAsyncClient(channel, Duration.ofSeconds(5), Duration.ZERO);
+
+    for (int i = 0; i < 3; i++) {
+      client
+          .listApplications(ListApplicationsRequest.getDefaultInstance())
+          .get(5, TimeUnit.SECONDS);
+    }
+    assertThat(channel.isShutdown()).isFalse();
+    client.close();
+
+    assertThat(receivedHeaders).hasSize(3);
+    assertThat(channel.isShutdown()).isTrue();
+  }
+}
@@ -19,18 +19,27 @@ package tsunami.security.scanner.utilities;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 import com.beust.jcommander.JCommander;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 import freemarker.template.TemplateException;
-import io.kubernetes.client.openapi.ApiClient;
 import io.kubernetes.client.openapi.ApiException;
 import io.kubernetes.client.openapi.Configuration;
-import io.kubernetes.client.util.Config;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class App {
+  private static final int MAX_CACHED_MANIFESTS = 256;
+
   private final KubeJavaClientUtil kubeJavaClientUtil;
 
   public App(KubeJavaClientUtil kubeJavaClientUtil) {
@@ -38,11 +47,10 @@ public class App {
   }
 
   public void run(String[] args) throws ApiException, TemplateException, IOException {
-    // Parse args read from command line
-    ApplicationArgs jArgs = new ApplicationArgs();
-    JCommander helloCmd = JCommander.newBuilder().addObject(jArgs).build();
-    helloCmd.parse(args);
+    run(parseArgs(args));
+  }
 
+  public void run(ApplicationArgs jArgs) throws ApiException, TemplateException, IOException {
     String appName = jArgs.getName();
     String appConfigPath = jArgs.getConfigPath();
     String templateData = jArgs.getTemplateData();
@@ -58,33 +66,111 @@ public class App {
     // Combine the file path with application name as a directory.
     String configPath = appConfigPath + "/" + appName + "/";
 
-    // Transform input template data Json String to Map.
-    Map<String, String> templateDataMap = TemplateDataUtil.parseTemplateDataJson(templateData);
+    // Transform input template data Json String to Map, then add the values passed one by one.
+    Map<String, String> templateDataMap = new LinkedHashMap<>();
+    Map<String, String> parsedTemplateData = TemplateDataUtil.parseTemplateDataJson(templateData);
+    if (parsedTemplateData != null) {
+      templateDataMap.putAll(parsedTemplateData);
+    }
+    templateDataMap.putAll(jArgs.getTemplateValues());
+
+    // Reuse configs rendered by earlier runs with the same templates and template data.
+    RenderedManifestCache manifestCache =
+        isNullOrEmpty(jArgs.getManifestCacheDir())
+            ? null
+            : new RenderedManifestCache(
+                MAX_CACHED_MANIFESTS,
+                Duration.ofSeconds(jArgs.getManifestCacheMaxAgeSeconds()),
+                new File(jArgs.getManifestCacheDir()));
+    ResourceCreationPlanner planner =
+        new ResourceCreationPlanner(
+            kubeJavaClientUtil, jArgs.getParallelism(), manifestCache, jArgs.isApply());
 
     // Load all application's config files, run services and deploy the app on GKE.
     File configFiles = new File(configPath);
 
+    // Prefer the application's bundle, which is read with a single open, unless a config file was
+    // edited after the bundle was built.
+    File bundleFile = AppBundleBuilder.bundleFileOf(new File(appConfigPath), appName);
+    if (bundleFile.isFile()) {
+      File newerConfigFile = findFileNewerThan(configFiles, bundleFile.lastModified());
+      if (newerConfigFile == null) {
+        planner.createResources(templateDataMap, AppBundle.open(bundleFile), jArgs.isDebug());
+        return;
+      }
+      System.out.println(
+          "Warning: "
+              + newerConfigFile
+              + " is newer than the bundle "
+              + bundleFile
+              + ", using the config directory instead.");
+    }
+
     // Check if configFiles is an existed directory
     if (!configFiles.isDirectory()) throw new FileNotFoundException("Wrong directory.");
 
     // Traverse all files under certain application's config path
+    List<File> configFileList = new ArrayList<>();
     for (File configFile : Files.fileTraverser().depthFirstPreOrder(configFiles)) {
-
       if (configFile.isFile()) {
-        String resourceConfig = FreeMarkerUtil.replaceTemplates(templateDataMap, configFile);
+        configFileList.add(configFile);
+      }
+    }
+
+    // Render all configs, then create their Kubernetes Objects in dependency order.
+    planner.createResources(templateDataMap, configFileList, jArgs.isDebug());
+  }
 
-        // Parse all config to Kubernetes Objects and create them.
-        kubeJavaClientUtil.createResources(resourceConfig);
+  /** Returns a file under the directory modified after the given time, or null if there is none. */
+  private static File findFileNewerThan(File directory, long lastModified) {
+    if (!directory.isDirectory()) {
+      return null;
+    }
+    for (File file : Files.fileTraverser().depthFirstPreOrder(directory)) {
+      if (file.isFile() && file.lastModified() > lastModified) {
+        return file;
       }
     }
+    return null;
   }
 
-  public static void main(String[] args) throws IOException, ApiException, TemplateException {
-    // Initialize Kubernetes Java Client Api.
-    ApiClient client = Config.defaultClient();
-    Configuration.setDefaultApiClient(client);
+  private static ApplicationArgs parseArgs(String[] args) {
+    // Parse args read from command line
+    ApplicationArgs jArgs = new ApplicationArgs();
+    JCommander helloCmd = JCommander.newBuilder().addObject(jArgs).build();
+    helloCmd.parse(args);
+    return jArgs;
+  }
 
-    App app = new App(new KubeJavaClientUtil());
-    app.run(args);
+  public static void main(String[] args) throws IOException, ApiException, TemplateException {
+    ApplicationArgs jArgs = parseArgs(args);
+
+    // Initialize Kubernetes Java Client Api on the shared, tuned transport.
+    KubeTransport transport = KubeTransport.create(jArgs.getTransportArgs());
+    Configuration.setDefaultApiClient(transport.getApiClient());
+
+    // Label everything with the deployment, so it can be deleted in bulk once it expires.
+    ImmutableMap<String, String> labels =
+        isNullOrEmpty(jArgs.getDeploymentId())
+            ? ImmutableMap.of()
+            : ImmutableMap.of(
+                KubeJavaClientUtil.DEPLOYMENT_ID_LABEL,
+                jArgs.getDeploymentId(),
+                KubeJavaClientUtil.EXPIRES_AT_LABEL,
+                Long.toString(jArgs.getExpiresAt()));
+
+    DeploymentStageEvent.setProcessDefaults(jArgs.getDeploymentId(), jArgs.getName());
+    App app =
+        new App(
+            new KubeJavaClientUtil(
+                transport.getCoreV1Api(), transport.getAppsV1Api(), jArgs.getNamespace(), labels));
+    app.run(jArgs);
+
+    // The deployer job exits before it could be scraped, so report its Kubernetes Api calls.
+    if (jArgs.isDebug()) {
+      Writer metrics = new StringWriter();
+      TextFormat.write004(metrics, CollectorRegistry.defaultRegistry.metricFamilySamples());
+      System.out.println(metrics);
+    }
   }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class reads and writes application bundles, single files holding all config files of an
+ * application together with an index of them.
+ * Usage: AppBundle.write(new File("application/jupyter"), new File("application/jupyter.bundle"));
+ *        AppBundle.open(new File("application/jupyter.bundle")).getEntries();
+ * Purpose: A deployer reads a bundle with one open and one memory mapping, instead of walking the
+ *          application's directory and opening every config file. The index holds each file's
+ *          path, the SHA-256 of its content and the template variables it interpolates, so the
+ *          content is only decoded when a file is rendered.
+ *
+ * Layout, big-endian: the magic "TSAB", the format version and the entry count as ints, then per
+ * entry its path, the 32 hash bytes, the content offset as long and length as int, and its
+ * variables, with strings written as an int length and UTF-8 bytes. The contents follow the index,
+ * and offsets count from the end of the index.
+ */
+public final class AppBundle {
+
+  public static final String FILE_SUFFIX = ".bundle";
+
+  private static final int MAGIC = 0x54534142; // "TSAB"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HASH_BYTES = 32;
+  private static final Pattern INTERPOLATION =
+      Pattern.compile("\\$\\{\\s*([A-Za-z_][A-Za-z0-9_]*)");
+
+  /** One config file of a bundle. */
+  public static final class Entry {
+    private final String path;
+    private final String hash;
+    private final ImmutableSortedSet<String> variables;
+    private final ByteBuffer content;
+
+    private Entry(
+        String path, String hash, ImmutableSortedSet<String> variables, ByteBuffer content) {
+      this.path = path;
+      this.hash = hash;
+      this.variables = variables;
+      this.content = content;
+    }
+
+    /** Returns an entry of the content held on the heap, as kept by {@link TemplateWatcher}. */
+    static Entry of(String path, byte[] content) {
+      return new Entry(path, contentHash(content), variablesOf(content), ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Returns the path of the file relative to the application's directory, or its absolute path
+     * for entries of a {@link TemplateWatcher}.
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /** Returns the SHA-256 of the file's content, as computed by {@link AppBundle#contentHash}. */
+    public String getHash() {
+      return hash;
+    }
+
+    /** Returns the names of the top-level variables the file interpolates. */
+    public ImmutableSortedSet<String> getVariables() {
+      return variables;
+    }
+
+    /** Decodes the file's content from the mapped bundle. */
+    public String getContent() {
+      return UTF_8.decode(content.duplicate()).toString();
+    }
+  }
+
+  private final ImmutableList<Entry> entries;
+
+  private AppBundle(ImmutableList<Entry> entries) {
+    this.entries = entries;
+  }
+
+  /** Returns the config files in path order. */
+  public ImmutableList<Entry> getEntries() {
+    return entries;
+  }
+
+  /** Returns the hex SHA-256 of config file content, the hash kept in bundle indexes. */
+  public static String contentHash(byte[] content) {
+    return Hashing.sha256().hashBytes(content).toString();
+  }
+
+  /** Memory-maps the bundle file and reads its index. */
+  public static AppBundle open(File bundleFile) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(bundleFile.toPath(), StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException(bundleFile + " is not an application bundle.");
+      }
+      int formatVersion = buffer.getInt();
+      if (formatVersion != FORMAT_VERSION) {
+        throw new IOException(
+            bundleFile + " has unsupported bundle format version " + formatVersion + ".");
+      }
+      int entryCount = buffer.getInt();
+      String[] paths = new String[entryCount];
+      String[] hashes = new String[entryCount];
+      long[] offsets = new long[entryCount];
+      int[] lengths = new int[entryCount];
+      List<ImmutableSortedSet<String>> variables = new ArrayList<>();
+      for (int i = 0; i < entryCount; i++) {
+        paths[i] = readString(buffer);
+        byte[] hash = new byte[HASH_BYTES];
+        buffer.get(hash);
+        hashes[i] = BaseEncoding.base16().lowerCase().encode(hash);
+        offsets[i] = buffer.getLong();
+        lengths[i] = buffer.getInt();
+        ImmutableSortedSet.Builder<String> entryVariables = ImmutableSortedSet.naturalOrder();
+        int variableCount = buffer.getInt();
+        for (int j = 0; j < variableCount; j++) {
+          entryVariables.add(readString(buffer));
+        }
+        variables.add(entryVariables.build());
+      }
+
+      long contentStart = buffer.position();
+      ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+      for (int i = 0; i < entryCount; i++) {
+        long start = contentStart + offsets[i];
+        if (offsets[i] < 0 || lengths[i] < 0 || start + lengths[i] > buffer.limit()) {
+          throw new IOException(bundleFile + " is truncated at entry " + paths[i] + ".");
+        }
+        ByteBuffer content = buffer.duplicate();
+        content.position((int) start).limit((int) start + lengths[i]);
+        entries.add(new Entry(paths[i], hashes[i], variables.get(i), content.slice()));
+      }
+      return new AppBundle(entries.build());
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException(bundleFile + " has a corrupt index.", e);
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Writes the bundle of all files under the application's directory to bundleFile, replacing it
+   * atomically so deployers never map a partial bundle.
+   */
+  public static void write(File applicationDirectory, File bundleFile) throws IOException {
+    Path root = applicationDirectory.toPath();
+    List<Path> paths;
+    try (Stream<Path> files = Files.walk(root)) {
+      paths = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+
+    List<byte[]> contents = new ArrayList<>();
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    DataOutputStream indexOutput = new DataOutputStream(index);
+    indexOutput.writeInt(MAGIC);
+    indexOutput.writeInt(FORMAT_VERSION);
+    indexOutput.writeInt(paths.size());
+    long offset = 0;
+    for (Path path : paths) {
+      byte[] content = Files.readAllBytes(path);
+      contents.add(content);
+      writeString(indexOutput, root.relativize(path).toString().replace(File.separatorChar, '/'));
+      indexOutput.write(Hashing.sha256().hashBytes(content).asBytes());
+      indexOutput.writeLong(offset);
+      indexOutput.writeInt(content.length);
+      ImmutableSortedSet<String> variables = variablesOf(content);
+      indexOutput.writeInt(variables.size());
+      for (String variable : variables) {
+        writeString(indexOutput, variable);
+      }
+      offset += content.length;
+    }
+    indexOutput.flush();
+
+    Path target = bundleFile.getAbsoluteFile().toPath();
+    Files.createDirectories(target.getParent());
+    Path temporary = Files.createTempFile(target.getParent(), bundleFile.getName(), ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(index.toByteArray()));
+      for (byte[] content : contents) {
+        channel.write(ByteBuffer.wrap(content));
+      }
+    }
+    try {
+      Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  /** Returns the top-level names of the ${...} interpolations in the content. */
+  static ImmutableSortedSet<String> variablesOf(byte[] content) {
+    ImmutableSortedSet.Builder<String> variables = ImmutableSortedSet.naturalOrder();
+    Matcher matcher = INTERPOLATION.matcher(new String(content, UTF_8));
+    while (matcher.find()) {
+      variables.add(matcher.group(1));
+    }
+    return variables.build();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a command line tool which packs application config directories into bundles.
+ * Usage: java -cp deployer.jar tsunami.security.scanner.utilities.AppBundleBuilder
+ *            --configPath /application [--app jupyter ...]
+ * Purpose: Writes configPath/app.bundle for each given application, or for every application
+ *          directory under configPath if none is given. The deployer uses the bundle of an
+ *          application instead of its directory whenever one exists.
+ */
+public final class AppBundleBuilder {
+
+  private static final class Args {
+    @Parameter(
+        names = "--configPath",
+        description = "Directory holding one config directory per application.",
+        required = true)
+    private String configPath;
+
+    @Parameter(names = "--app", description = "Application to bundle, repeated per application.")
+    private List<String> apps = new ArrayList<>();
+  }
+
+  private AppBundleBuilder() {}
+
+  /** Returns the bundle file of the application, next to its config directory. */
+  public static File bundleFileOf(File configPath, String appName) {
+    return new File(configPath, appName + AppBundle.FILE_SUFFIX);
+  }
+
+  public static void main(String[] argv) throws IOException {
+    Args args = new Args();
+    JCommander.newBuilder().addObject(args).build().parse(argv);
+
+    File configPath = new File(args.configPath);
+    List<String> apps = args.apps;
+    if (apps.isEmpty()) {
+      File[] directories = configPath.listFiles(File::isDirectory);
+      if (directories == null) {
+        throw new FileNotFoundException("Wrong directory.");
+      }
+      apps = new ArrayList<>();
+      for (File directory : directories) {
+        apps.add(directory.getName());
+      }
+    }
+    for (String app : apps) {
+      File applicationDirectory = new File(configPath, app);
+      if (!applicationDirectory.isDirectory()) {
+        throw new FileNotFoundException("Wrong directory: " + applicationDirectory);
+      }
+      File bundleFile = bundleFileOf(configPath, app);
+      AppBundle.write(applicationDirectory, bundleFile);
+      System.out.println("Wrote " + bundleFile);
+    }
+  }
+}
@@ -16,7 +16,11 @@
 
 package tsunami.security.scanner.utilities;
 
+import com.beust.jcommander.DynamicParameter;
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class ApplicationArgs {
   @Parameter(names = "--app", description = "Application name", required = true)
@@ -30,6 +34,55 @@ public class ApplicationArgs {
       description = "Template Data needs to be substituted in Json String type.")
   private String templateData;
 
+  @DynamicParameter(
+      names = "--templateValue",
+      description =
+          "Template data as key=value, repeated per key. Overrides the same key in --templateData.")
+  private Map<String, String> templateValues = new LinkedHashMap<>();
+
+  @Parameter(names = "--namespace", description = "Namespace to create the resources in.")
+  private String namespace = "default";
+
+  @Parameter(
+      names = "--deploymentId",
+      description = "Id of the deployment, added as a label to every created resource.")
+  private String deploymentId = "";
+
+  @Parameter(
+      names = "--expiresAt",
+      description =
+          "Epoch second after which the deployment's resources may be deleted, 0 for never.")
+  private long expiresAt = 0;
+
+  @Parameter(
+      names = "--parallelism",
+      description = "Maximum number of config files rendered or resources created at once.")
+  private int parallelism = 4;
+
+  @Parameter(
+      names = "--manifestCacheDir",
+      description = "Directory keeping rendered config files across runs. Empty disables it.")
+  private String manifestCacheDir = "";
+
+  @Parameter(
+      names = "--manifestCacheMaxAgeSeconds",
+      description = "Age after which a rendered config file in the cache directory is dropped.")
+  private long manifestCacheMaxAgeSeconds = 86400;
+
+  @Parameter(
+      names = "--apply",
+      description =
+          "Create missing resources, patch changed ones and skip unchanged ones, instead of"
+              + " creating all of them.")
+  private boolean apply = false;
+
+  @Parameter(
+      names = "--debug",
+      description = "Print rendered config files and the Kubernetes Api call metrics.")
+  private boolean debug = false;
+
+  @ParametersDelegate private KubeTransportArgs transportArgs = new KubeTransportArgs();
+
   public String getName() {
     return name;
   }
@@ -41,4 +94,44 @@ public class ApplicationArgs {
   public String getTemplateData() {
     return templateData;
   }
+
+  public Map<String, String> getTemplateValues() {
+    return templateValues;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  public String getDeploymentId() {
+    return deploymentId;
+  }
+
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public String getManifestCacheDir() {
+    return manifestCacheDir;
+  }
+
+  public long getManifestCacheMaxAgeSeconds() {
+    return manifestCacheMaxAgeSeconds;
+  }
+
+  public boolean isApply() {
+    return apply;
+  }
+
+  public boolean isDebug() {
+    return debug;
+  }
+
+  public KubeTransportArgs getTransportArgs() {
+    return transportArgs;
+  }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import java.io.File;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * This class is a Java Flight Recorder event timing one step of a deployment.
+ * Usage: DeploymentStageEvent event = DeploymentStageEvent.begin(DeploymentStageEvent.RENDER);
+ *        try { ... } finally { event.file(configFile).commit(); }
+ * Purpose: A recording shows where the time of a slow deployment went: reading and rendering
+ *          templates, loading YAML or calling the Kubernetes Api. Events carry the deployment id
+ *          and application of the calling thread, set with enter() or setProcessDefaults(). When
+ *          no recording is running, committing an event does nothing.
+ */
+@Name("tsunami.testbed.DeploymentStage")
+@Label("Deployment Stage")
+@Category("Tsunami Testbed")
+@Description("One step of deploying an application.")
+@StackTrace(false)
+public final class DeploymentStageEvent extends Event {
+
+  public static final String TEMPLATE_READ = "template-read";
+  public static final String RENDER = "render";
+  public static final String YAML_LOAD = "yaml-load";
+  public static final String CREATE = "create";
+  public static final String APPLY = "apply";
+  public static final String DEPLOYER_JOB_RENDER = "deployer-job-render";
+  public static final String DEPLOYER_JOB_CREATE = "deployer-job-create";
+
+  private static volatile Context processContext = new Context("", "");
+  private static final ThreadLocal<Context> threadContext = new ThreadLocal<>();
+
+  /** The deployment and application events are attributed to. */
+  private static final class Context {
+    private final String deploymentId;
+    private final String application;
+
+    private Context(String deploymentId, String application) {
+      this.deploymentId = deploymentId;
+      this.application = application;
+    }
+  }
+
+  /** Restores the deployment the thread worked on before enter(). */
+  public static final class Scope implements AutoCloseable {
+    private final Context previous;
+
+    private Scope(Context previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public void close() {
+      if (previous == null) {
+        threadContext.remove();
+      } else {
+        threadContext.set(previous);
+      }
+    }
+  }
+
+  @Label("Deployment Id")
+  private String deploymentId;
+
+  @Label("Stage")
+  private String stage;
+
+  @Label("Application")
+  private String application;
+
+  @Label("File")
+  private String file;
+
+  @Label("Object Kind")
+  private String kind;
+
+  @Label("Object Name")
+  private String objectName;
+
+  /** Attributes events of every thread without a deployment of its own, as in the deployer job. */
+  public static void setProcessDefaults(String deploymentId, String application) {
+    processContext = new Context(deploymentId, application);
+  }
+
+  /** Attributes events of the current thread to the deployment until the scope is closed. */
+  public static Scope enter(String deploymentId, String application) {
+    Scope scope = new Scope(threadContext.get());
+    threadContext.set(new Context(deploymentId, application));
+    return scope;
+  }
+
+  /** Starts timing a stage of the deployment the current thread works on. */
+  public static DeploymentStageEvent begin(String stage) {
+    Context context = threadContext.get();
+    if (context == null) {
+      context = processContext;
+    }
+    return begin(stage, context.deploymentId, context.application);
+  }
+
+  /** Starts timing a stage of the deployment, whichever deployment the current thread works on. */
+  public static DeploymentStageEvent begin(String stage, String deploymentId, String application) {
+    DeploymentStageEvent event = new DeploymentStageEvent();
+    if (event.isEnabled()) {
+      event.deploymentId = deploymentId;
+      event.application = application;
+      event.stage = stage;
+      event.begin();
+    }
+    return event;
+  }
+
+  public DeploymentStageEvent file(File configFile) {
+    if (isEnabled()) {
+      this.file = configFile.getPath();
+    }
+    return this;
+  }
+
+  /** Records the path of a config file read from an application bundle. */
+  public DeploymentStageEvent file(String path) {
+    if (isEnabled()) {
+      this.file = path;
+    }
+    return this;
+  }
+
+  /** Records the kind and name of the Kubernetes object the stage worked on. */
+  public DeploymentStageEvent object(String kind, String objectName) {
+    this.kind = kind;
+    this.objectName = objectName;
+    return this;
+  }
+}
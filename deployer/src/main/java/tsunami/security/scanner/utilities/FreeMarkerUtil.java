@@ -16,9 +16,17 @@
 
 package tsunami.security.scanner.utilities;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.Files;
+import freemarker.cache.FileTemplateLoader;
 import freemarker.template.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 
 /**
  * This class is used for replace ${app_version} and ${password} parameters in template config files.
@@ -27,40 +35,166 @@ import java.util.*;
  *      templateDataMap: Map of template data needs to be substituted, such as {mysql_version=5.6, password=dkkeoij}
  *      configFile: original config file template Output: A new config file after replacement.
  * Deprecated usage: FreeMarkerUtil.replaceTemplates(String version, String password, File configFile);
+ *
+ * Compiled templates are cached by absolute path and re-parsed only when the file's modification
+ * time or size changes, so concurrent callers can render in parallel without touching shared state.
+ * Each file is compiled under a configuration that loads templates from the file's directory, so
+ * relative <#include> and <#import> directives resolve next to it.
  */
 public final class FreeMarkerUtil {
 
-  static Configuration cfg = new Configuration(Configuration.VERSION_2_3_29);
+  private static final int MAX_CACHED_TEMPLATES = 256;
+  private static final int MAX_CACHED_DIRECTORIES = 64;
+  // Bundle entries are cached by content hash, which cannot collide with an absolute path.
+  private static final String BUNDLE_KEY_PREFIX = "bundle:";
+
+  private static final Configuration cfg = createConfiguration();
+
+  private static final Cache<String, CachedTemplate> templateCache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_TEMPLATES).build();
+
+  private static final Cache<File, Configuration> directoryConfigurations =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_DIRECTORIES).build();
+
+  private FreeMarkerUtil() {}
+
+  private static Configuration createConfiguration() {
+    Configuration configuration = new Configuration(Configuration.VERSION_2_3_29);
+    configuration.setDefaultEncoding("UTF-8");
+    configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+    configuration.setLogTemplateExceptions(false);
+    configuration.setWrapUncheckedExceptions(true);
+    configuration.setFallbackOnNullLoopVariable(false);
+    return configuration;
+  }
+
+  /** Returns the configuration loading included and imported templates from the directory. */
+  private static Configuration configurationFor(File directory) throws IOException {
+    try {
+      return directoryConfigurations.get(
+          directory,
+          () -> {
+            Configuration configuration = createConfiguration();
+            configuration.setTemplateLoader(new FileTemplateLoader(directory));
+            // Included files are checked for changes on every use, as the including files are.
+            configuration.setTemplateUpdateDelayMilliseconds(0);
+            return configuration;
+          });
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** A compiled template together with the file attributes it was compiled from. */
+  private static final class CachedTemplate {
+    private final Template template;
+    private final long lastModified;
+    private final long length;
+
+    private CachedTemplate(Template template, long lastModified, long length) {
+      this.template = template;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
 
-  private FreeMarkerUtil() throws IOException {
-    cfg.setDefaultEncoding("UTF-8");
-    cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
-    cfg.setLogTemplateExceptions(false);
-    cfg.setWrapUncheckedExceptions(true);
-    cfg.setFallbackOnNullLoopVariable(false);
+    private boolean isCurrent(long lastModified, long length) {
+      return this.lastModified == lastModified && this.length == length;
+    }
+  }
+
+  /** Returns the compiled template for the file, parsing it only if it changed since last use. */
+  static Template getTemplate(File configFile) throws IOException {
+    String key = configFile.getAbsolutePath();
+    long lastModified = configFile.lastModified();
+    long length = configFile.length();
+
+    CachedTemplate cached = templateCache.getIfPresent(key);
+    if (cached == null || !cached.isCurrent(lastModified, length)) {
+      DeploymentStageEvent event = DeploymentStageEvent.begin(DeploymentStageEvent.TEMPLATE_READ);
+      try (Reader reader = Files.newReader(configFile, UTF_8)) {
+        cached =
+            new CachedTemplate(
+                new Template(
+                    configFile.getName(),
+                    reader,
+                    configurationFor(configFile.getAbsoluteFile().getParentFile())),
+                lastModified,
+                length);
+      } finally {
+        event.file(configFile).commit();
+      }
+      templateCache.put(key, cached);
+    }
+    return cached.template;
+  }
+
+  /** Returns the compiled template of the bundle entry, parsing each content only once. */
+  static Template getTemplate(AppBundle.Entry entry) throws IOException {
+    String key = BUNDLE_KEY_PREFIX + entry.getHash();
+    CachedTemplate cached = templateCache.getIfPresent(key);
+    if (cached == null) {
+      DeploymentStageEvent event = DeploymentStageEvent.begin(DeploymentStageEvent.TEMPLATE_READ);
+      try {
+        cached = new CachedTemplate(compile(entry), 0, 0);
+      } finally {
+        event.file(entry.getPath()).commit();
+      }
+      templateCache.put(key, cached);
+    }
+    return cached.template;
+  }
+
+  // Entries of a TemplateWatcher have absolute paths and include from their directory; bundled
+  // entries have no directory to include from.
+  private static Template compile(AppBundle.Entry entry) throws IOException {
+    File file = new File(entry.getPath());
+    Configuration configuration = file.isAbsolute() ? configurationFor(file.getParentFile()) : cfg;
+    String name = file.isAbsolute() ? file.getName() : entry.getPath();
+    return new Template(name, new StringReader(entry.getContent()), configuration);
   }
 
   public static String replaceTemplates(Map<String, String> templateDataMap, File configFile)
       throws IOException, TemplateException {
+    StringWriter stringWriter = new StringWriter();
+    renderTemplates(templateDataMap, configFile, stringWriter);
 
-    // Split input configFile into path and file name.
-    String file = configFile.getName();
-    String filePath = configFile.getPath();
-    String path = filePath.substring(0, filePath.lastIndexOf("/"));
-
-    // Set path for config templates
-    cfg.setDirectoryForTemplateLoading(new File(path));
+    // get the config in String format from the StringWriter
+    return stringWriter.toString();
+  }
 
+  /** Renders the config file straight into the writer without building an intermediate String. */
+  public static void renderTemplates(
+      Map<String, String> templateDataMap, File configFile, Writer writer)
+      throws IOException, TemplateException {
     // Get the template file.
-    Template temp = cfg.getTemplate(file);
+    Template temp = getTemplate(configFile);
+    process(temp, templateDataMap, configFile.getPath(), writer);
+  }
 
+  public static String replaceTemplates(Map<String, String> templateDataMap, AppBundle.Entry entry)
+      throws IOException, TemplateException {
     StringWriter stringWriter = new StringWriter();
-    temp.process(templateDataMap, stringWriter);
+    renderTemplates(templateDataMap, entry, stringWriter);
+    return stringWriter.toString();
+  }
 
-    // get the config in String format from the StringWriter
-    String config = stringWriter.toString();
-    System.out.println(config);
+  /** Renders the config file of an application bundle straight into the writer. */
+  public static void renderTemplates(
+      Map<String, String> templateDataMap, AppBundle.Entry entry, Writer writer)
+      throws IOException, TemplateException {
+    process(getTemplate(entry), templateDataMap, entry.getPath(), writer);
+  }
 
-    return config;
+  private static void process(
+      Template temp, Map<String, String> templateDataMap, String path, Writer writer)
+      throws IOException, TemplateException {
+    // When rendering into a YamlDocumentWriter, this includes loading and handling the documents.
+    DeploymentStageEvent event = DeploymentStageEvent.begin(DeploymentStageEvent.RENDER);
+    try {
+      temp.process(TemplateDataUtil.toTemplateModel(templateDataMap), writer);
+    } finally {
+      event.file(path).commit();
+    }
   }
 }
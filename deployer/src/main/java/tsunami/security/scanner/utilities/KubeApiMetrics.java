@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import java.io.IOException;
+import java.util.List;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * This class records the count, status and latency of every Kubernetes Api call.
+ * Usage: httpClient.newBuilder().addInterceptor(new KubeApiMetrics()).build();
+ * Purpose: Installed on the shared OkHttp transport, it sees every call of the deployer and the
+ *          testbed server, including watches, without touching the call sites. Calls are labelled
+ *          with a Kubernetes verb and resource, so names and namespaces do not multiply the series.
+ *          Metrics go to the default Prometheus registry.
+ */
+public final class KubeApiMetrics implements Interceptor {
+
+  static final Counter REQUESTS =
+      Counter.build()
+          .name("tsunami_testbed_kube_api_requests_total")
+          .help("Kubernetes Api calls by verb, resource and HTTP status code.")
+          .labelNames("verb", "resource", "code")
+          .register();
+
+  static final Histogram LATENCY =
+      Histogram.build()
+          .name("tsunami_testbed_kube_api_request_duration_seconds")
+          .help("Time until the Kubernetes Api answered a call, by verb and resource.")
+          .labelNames("verb", "resource")
+          .buckets(0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+          .register();
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    List<String> segments = request.url().pathSegments();
+    String verb = verb(request.method(), segments, request.url().queryParameter("watch"));
+    String resource = resource(segments);
+
+    Histogram.Timer timer = LATENCY.labels(verb, resource).startTimer();
+    try {
+      Response response = chain.proceed(request);
+      REQUESTS.labels(verb, resource, Integer.toString(response.code())).inc();
+      return response;
+    } catch (IOException e) {
+      REQUESTS.labels(verb, resource, "error").inc();
+      throw e;
+    } finally {
+      // For watches this is the time until the stream opened.
+      timer.observeDuration();
+    }
+  }
+
+  /** Returns the Kubernetes verb of the call, e.g. "list" for a GET of a collection. */
+  static String verb(String method, List<String> segments, String watch) {
+    boolean named = resourcePath(segments).size() >= 2;
+    switch (method) {
+      case "GET":
+        if ("true".equals(watch) || "1".equals(watch)) {
+          return "watch";
+        }
+        return named ? "get" : "list";
+      case "POST":
+        return "create";
+      case "PUT":
+        return "update";
+      case "PATCH":
+        return "patch";
+      case "DELETE":
+        return named ? "delete" : "deletecollection";
+      default:
+        return method.toLowerCase();
+    }
+  }
+
+  /** Returns the resource of the call, e.g. "services" or "pods/log" for a subresource. */
+  static String resource(List<String> segments) {
+    List<String> path = resourcePath(segments);
+    if (path.isEmpty()) {
+      return "";
+    }
+    return path.size() >= 3 ? path.get(0) + "/" + path.get(2) : path.get(0);
+  }
+
+  /**
+   * Returns the path after the api group, version and namespace, e.g. [services, jupyter] for
+   * /api/v1/namespaces/default/services/jupyter.
+   */
+  private static List<String> resourcePath(List<String> segments) {
+    // Core resources live under /api/v1, others under /apis/<group>/<version>.
+    int prefixLength = !segments.isEmpty() && segments.get(0).equals("apis") ? 3 : 2;
+    if (segments.size() <= prefixLength) {
+      return segments.subList(segments.size(), segments.size());
+    }
+    List<String> path = segments.subList(prefixLength, segments.size());
+    if (path.get(0).equals("namespaces") && path.size() >= 3) {
+      return path.subList(2, path.size());
+    }
+    return path;
+  }
+}
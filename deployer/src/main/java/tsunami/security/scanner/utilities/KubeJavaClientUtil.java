@@ -16,14 +16,22 @@
 
 package tsunami.security.scanner.utilities;
 
+import static tsunami.security.scanner.utilities.ResourceApplier.FIELD_MANAGER;
+
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import freemarker.template.TemplateException;
 import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.JSON;
 import io.kubernetes.client.openapi.apis.AppsV1Api;
 import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.models.*;
 import io.kubernetes.client.util.Yaml;
+import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * This class is a wrapper for Kubernetes Java Client Api
@@ -33,18 +41,64 @@ import java.io.IOException;
  */
 public final class KubeJavaClientUtil {
 
+  /** Label holding the id of the deployment a resource belongs to. */
+  public static final String DEPLOYMENT_ID_LABEL = "tsunami-testbed/deployment-id";
+
+  /** Label holding the epoch second after which a deployment may be reaped. */
+  public static final String EXPIRES_AT_LABEL = "tsunami-testbed/expires-at";
+
+  private static final String DEFAULT_NAMESPACE = "default";
+  // Copies Kubernetes models through a JSON tree, with the adapters of the generated client.
+  private static final Gson MODEL_GSON = new JSON().getGson();
+
   private final CoreV1Api coreV1Api;
   private final AppsV1Api appsV1Api;
+  private final String namespace;
+  // Labels added to every created resource.
+  private final ImmutableMap<String, String> labels;
+  private final ImmutableMap<Class, Function<Object, V1ObjectMeta>> metadataByClass =
+      ImmutableMap.of(
+          V1Deployment.class,
+          deployment -> ((V1Deployment) deployment).getMetadata(),
+          V1PersistentVolumeClaim.class,
+          v1Pvc -> ((V1PersistentVolumeClaim) v1Pvc).getMetadata(),
+          V1Service.class,
+          v1Service -> ((V1Service) v1Service).getMetadata(),
+          V1Pod.class,
+          v1Pod -> ((V1Pod) v1Pod).getMetadata());
   // Use the map to relate a Class object to a Handler
   private final ImmutableMap<Class, ResourceCreator> apiCallByClass;
+  private final ImmutableMap<Class, ResourceApplier<?>> applierByClass;
+
+  /** What applying a resource did to the cluster. */
+  public enum ApplyOutcome {
+    CREATED,
+    PATCHED,
+    UNCHANGED,
+    UNSUPPORTED
+  }
 
   public KubeJavaClientUtil() {
     this(new CoreV1Api(), new AppsV1Api());
   }
 
   public KubeJavaClientUtil(CoreV1Api coreV1Api, AppsV1Api appsV1Api) {
+    this(coreV1Api, appsV1Api, DEFAULT_NAMESPACE);
+  }
+
+  public KubeJavaClientUtil(CoreV1Api coreV1Api, AppsV1Api appsV1Api, String namespace) {
+    this(coreV1Api, appsV1Api, namespace, ImmutableMap.of());
+  }
+
+  public KubeJavaClientUtil(
+      CoreV1Api coreV1Api,
+      AppsV1Api appsV1Api,
+      String namespace,
+      ImmutableMap<String, String> labels) {
     this.coreV1Api = coreV1Api;
     this.appsV1Api = appsV1Api;
+    this.namespace = namespace;
+    this.labels = labels;
     this.apiCallByClass =
         ImmutableMap.of(
             V1Deployment.class,
@@ -55,6 +109,50 @@ public final class KubeJavaClientUtil {
             v1Service -> createService((V1Service) v1Service),
             V1Pod.class,
             v1Pod -> createPod((V1Pod) v1Pod));
+    this.applierByClass =
+        ImmutableMap.of(
+            V1Deployment.class,
+            new ResourceApplier<>(
+                V1Deployment.class,
+                V1Deployment::getMetadata,
+                name -> appsV1Api.readNamespacedDeployment(name, namespace, null, null, null),
+                this::createDeployment,
+                (name, patch) ->
+                    appsV1Api.patchNamespacedDeploymentCall(
+                        name, namespace, patch, null, null, FIELD_MANAGER, true, null),
+                appsV1Api.getApiClient()),
+            V1PersistentVolumeClaim.class,
+            new ResourceApplier<>(
+                V1PersistentVolumeClaim.class,
+                V1PersistentVolumeClaim::getMetadata,
+                name ->
+                    coreV1Api.readNamespacedPersistentVolumeClaim(
+                        name, namespace, null, null, null),
+                this::createPvc,
+                (name, patch) ->
+                    coreV1Api.patchNamespacedPersistentVolumeClaimCall(
+                        name, namespace, patch, null, null, FIELD_MANAGER, true, null),
+                coreV1Api.getApiClient()),
+            V1Service.class,
+            new ResourceApplier<>(
+                V1Service.class,
+                V1Service::getMetadata,
+                name -> coreV1Api.readNamespacedService(name, namespace, null, null, null),
+                this::createService,
+                (name, patch) ->
+                    coreV1Api.patchNamespacedServiceCall(
+                        name, namespace, patch, null, null, FIELD_MANAGER, true, null),
+                coreV1Api.getApiClient()),
+            V1Pod.class,
+            new ResourceApplier<>(
+                V1Pod.class,
+                V1Pod::getMetadata,
+                name -> coreV1Api.readNamespacedPod(name, namespace, null, null, null),
+                this::createPod,
+                (name, patch) ->
+                    coreV1Api.patchNamespacedPodCall(
+                        name, namespace, patch, null, null, FIELD_MANAGER, true, null),
+                coreV1Api.getApiClient()));
   }
 
   @FunctionalInterface
@@ -63,26 +161,99 @@ public final class KubeJavaClientUtil {
   }
 
   private void createDeployment(V1Deployment v1Deployment) throws ApiException {
-    appsV1Api.createNamespacedDeployment("default", v1Deployment, null, null, null);
+    appsV1Api.createNamespacedDeployment(namespace, v1Deployment, null, null, null);
   }
 
   private void createPvc(V1PersistentVolumeClaim v1Pvc) throws ApiException {
-    coreV1Api.createNamespacedPersistentVolumeClaim("default", v1Pvc, null, null, null);
+    coreV1Api.createNamespacedPersistentVolumeClaim(namespace, v1Pvc, null, null, null);
   }
 
   private void createService(V1Service v1Service) throws ApiException {
-    coreV1Api.createNamespacedService("default", v1Service, null, null, null);
+    coreV1Api.createNamespacedService(namespace, v1Service, null, null, null);
   }
 
   private void createPod(V1Pod v1Pod) throws ApiException {
-    coreV1Api.createNamespacedPod("default", v1Pod, null, null, null);
+    coreV1Api.createNamespacedPod(namespace, v1Pod, null, null, null);
+  }
+
+  /**
+   * Returns a copy of the resource carrying the configured labels, or the resource itself if there
+   * are none. Rendered resources may be shared through a cache, so they are never labelled in
+   * place.
+   */
+  private Object withLabels(Object resource) {
+    Function<Object, V1ObjectMeta> metadataOf = metadataByClass.get(resource.getClass());
+    if (labels.isEmpty() || metadataOf == null) {
+      return resource;
+    }
+    Object labelled = deepCopy(resource, resource.getClass());
+    V1ObjectMeta metadata = metadataOf.apply(labelled);
+    labels.forEach(metadata::putLabelsItem);
+    return labelled;
+  }
+
+  /** Returns a deep copy of the Kubernetes model, without a YAML text round trip. */
+  static <T> T deepCopy(Object resource, Class<T> type) {
+    return MODEL_GSON.fromJson(MODEL_GSON.toJsonTree(resource), type);
+  }
+
+  public void createResource(Object resource) throws ApiException {
+    ResourceCreator creator = apiCallByClass.get(resource.getClass());
+    if (creator != null) {
+      DeploymentStageEvent event = DeploymentStageEvent.begin(DeploymentStageEvent.CREATE);
+      try {
+        creator.createResource(withLabels(resource));
+      } finally {
+        describe(event, resource).commit();
+      }
+    }
+  }
+
+  /**
+   * Creates the resource if it does not exist, leaves it alone if it is unchanged since it was last
+   * applied, and patches it otherwise. Kinds without an API call are not applied.
+   */
+  public ApplyOutcome applyResource(Object resource) throws ApiException {
+    ResourceApplier<?> applier = applierByClass.get(resource.getClass());
+    if (applier == null) {
+      return ApplyOutcome.UNSUPPORTED;
+    }
+    DeploymentStageEvent event = DeploymentStageEvent.begin(DeploymentStageEvent.APPLY);
+    try {
+      // The applier labels its own copy, after fingerprinting the resource as rendered.
+      return applier.apply(resource, labels);
+    } finally {
+      describe(event, resource).commit();
+    }
+  }
+
+  private DeploymentStageEvent describe(DeploymentStageEvent event, Object resource) {
+    if (event.isEnabled()) {
+      V1ObjectMeta metadata = metadataByClass.get(resource.getClass()).apply(resource);
+      event.object(resource.getClass().getSimpleName(), metadata.getName());
+    }
+    return event;
   }
 
   public void createResources(String resourceConfig) throws ApiException, IOException {
     ImmutableList<Object> resources = ImmutableList.copyOf(Yaml.loadAll(resourceConfig));
     for (Object resource : resources) {
-      ResourceCreator creator = apiCallByClass.get(resource.getClass());
-      if (creator != null) creator.createResource(resource);
+      createResource(resource);
+    }
+  }
+
+  /**
+   * Renders the config file and creates each resource as soon as its YAML document is rendered,
+   * without holding the rendered config as a String. Rendered documents are printed only when
+   * printRendered is set.
+   */
+  public void createResources(
+      Map<String, String> templateDataMap, File configFile, boolean printRendered)
+      throws ApiException, IOException, TemplateException {
+    try (YamlDocumentWriter writer = new YamlDocumentWriter(this::createResource, printRendered)) {
+      FreeMarkerUtil.renderTemplates(templateDataMap, configFile, writer);
+    } catch (YamlDocumentWriter.HandlerException e) {
+      throw e.getCause();
     }
   }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import com.google.common.collect.ImmutableList;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.BatchV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.util.Config;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * This class holds the Kubernetes Api clients shared by the deployer and the testbed server.
+ * Usage: KubeTransport.create(KubeTransportArgs transportArgs);
+ * Purpose: Configure one tuned OkHttp transport (connection pool, dispatcher limits, HTTP/2,
+ *          timeouts and call metrics) and hand out Api objects that reuse it instead of creating
+ *          them per request.
+ */
+public final class KubeTransport {
+
+  private final ApiClient apiClient;
+  private final ApiClient watchClient;
+  private final CoreV1Api coreV1Api;
+  private final AppsV1Api appsV1Api;
+  private final BatchV1Api batchV1Api;
+
+  public KubeTransport(ApiClient apiClient, ApiClient watchClient, KubeTransportArgs args) {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(args.getMaxRequests());
+    dispatcher.setMaxRequestsPerHost(args.getMaxRequestsPerHost());
+
+    OkHttpClient httpClient =
+        apiClient
+            .getHttpClient()
+            .newBuilder()
+            .connectionPool(
+                new ConnectionPool(
+                    args.getMaxIdleConnections(), args.getKeepAliveSeconds(), TimeUnit.SECONDS))
+            .dispatcher(dispatcher)
+            .protocols(
+                args.isHttp2()
+                    ? ImmutableList.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                    : ImmutableList.of(Protocol.HTTP_1_1))
+            .connectTimeout(args.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+            .readTimeout(args.getReadTimeoutMillis(), TimeUnit.MILLISECONDS)
+            .addInterceptor(new KubeApiMetrics())
+            .build();
+    apiClient.setHttpClient(httpClient);
+
+    // Watches share the pool and dispatcher but are long-lived, so they have no read timeout.
+    watchClient.setHttpClient(
+        httpClient.newBuilder().readTimeout(0, TimeUnit.MILLISECONDS).build());
+
+    this.apiClient = apiClient;
+    this.watchClient = watchClient;
+    this.coreV1Api = new CoreV1Api(apiClient);
+    this.appsV1Api = new AppsV1Api(apiClient);
+    this.batchV1Api = new BatchV1Api(apiClient);
+  }
+
+  /** Creates a transport for the cluster found by the default Kubernetes client config. */
+  public static KubeTransport create(KubeTransportArgs args) throws IOException {
+    return new KubeTransport(Config.defaultClient(), Config.defaultClient(), args);
+  }
+
+  public ApiClient getApiClient() {
+    return apiClient;
+  }
+
+  public ApiClient getWatchClient() {
+    return watchClient;
+  }
+
+  public CoreV1Api getCoreV1Api() {
+    return coreV1Api;
+  }
+
+  public AppsV1Api getAppsV1Api() {
+    return appsV1Api;
+  }
+
+  public BatchV1Api getBatchV1Api() {
+    return batchV1Api;
+  }
+}
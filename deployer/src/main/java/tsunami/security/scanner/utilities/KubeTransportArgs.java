@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Command line settings for the HTTP transport used to talk to the Kubernetes API server. Shared
+ * by the deployer and the testbed server through {@code @ParametersDelegate}.
+ */
+public class KubeTransportArgs {
+  @Parameter(
+      names = "--kubeMaxIdleConnections",
+      description = "Maximum number of idle connections kept in the connection pool.")
+  private int maxIdleConnections = 20;
+
+  @Parameter(
+      names = "--kubeKeepAliveSeconds",
+      description = "How long an idle pooled connection is kept open.")
+  private int keepAliveSeconds = 300;
+
+  @Parameter(
+      names = "--kubeMaxRequests",
+      description = "Maximum number of concurrent asynchronous requests.")
+  private int maxRequests = 64;
+
+  @Parameter(
+      names = "--kubeMaxRequestsPerHost",
+      description = "Maximum number of concurrent asynchronous requests to the API server.")
+  private int maxRequestsPerHost = 32;
+
+  @Parameter(
+      names = "--kubeHttp2",
+      arity = 1,
+      description = "Whether to negotiate HTTP/2 with the API server.")
+  private boolean http2 = true;
+
+  @Parameter(
+      names = "--kubeConnectTimeoutMillis",
+      description = "Connect timeout for API server requests.")
+  private int connectTimeoutMillis = 10_000;
+
+  @Parameter(
+      names = "--kubeReadTimeoutMillis",
+      description = "Read timeout for API server requests, not applied to watches.")
+  private int readTimeoutMillis = 30_000;
+
+  public int getMaxIdleConnections() {
+    return maxIdleConnections;
+  }
+
+  public int getKeepAliveSeconds() {
+    return keepAliveSeconds;
+  }
+
+  public int getMaxRequests() {
+    return maxRequests;
+  }
+
+  public int getMaxRequestsPerHost() {
+    return maxRequestsPerHost;
+  }
+
+  public boolean isHttp2() {
+    return http2;
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  public int getReadTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+}
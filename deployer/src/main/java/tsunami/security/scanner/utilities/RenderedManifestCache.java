@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import freemarker.template.TemplateException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class caches config files rendered with template data, both as text and parsed into
+ * Kubernetes objects.
+ * Usage: new RenderedManifestCache(maximumSize, maxAge, diskDirectory)
+ *            .render(templateDataMap, configFile, printRendered);
+ * Purpose: Entries are keyed by a hash of the template content and the template data, so deploying
+ *          the same application with the same data skips rendering and parsing, while an edited
+ *          template never hits a stale entry. Entries are evicted beyond maximumSize or after
+ *          maxAge. If diskDirectory is set, rendered text is also kept there and survives restarts.
+ *          If a TemplateWatcher is set, config files it watches are taken from memory instead of
+ *          read for every render. The returned objects are shared between callers and must not be
+ *          modified.
+ */
+public final class RenderedManifestCache {
+
+  private static final String DISK_ENTRY_SUFFIX = ".yaml";
+
+  /** The rendered text of a config file and the Kubernetes objects parsed from it. */
+  private static final class Manifest {
+    private final String rendered;
+    private final ImmutableList<Object> resources;
+
+    private Manifest(String rendered, ImmutableList<Object> resources) {
+      this.rendered = rendered;
+      this.resources = resources;
+    }
+  }
+
+  private final long maximumSize;
+  private final Duration maxAge;
+  private final File diskDirectory;
+  private final Cache<String, Manifest> memoryCache;
+  private final TemplateWatcher templateWatcher;
+
+  /** Creates a cache kept in memory only. */
+  public RenderedManifestCache(long maximumSize, Duration maxAge) {
+    this(maximumSize, maxAge, null);
+  }
+
+  /** Creates a cache that also keeps rendered text in diskDirectory, if it is not null. */
+  public RenderedManifestCache(long maximumSize, Duration maxAge, File diskDirectory) {
+    this(maximumSize, maxAge, diskDirectory, null);
+  }
+
+  /**
+   * Creates a cache that also keeps rendered text in diskDirectory, if it is not null, and takes
+   * config files watched by templateWatcher from memory, if it is not null.
+   */
+  public RenderedManifestCache(
+      long maximumSize, Duration maxAge, File diskDirectory, TemplateWatcher templateWatcher) {
+    checkArgument(maximumSize > 0, "maximumSize must be positive, got %s", maximumSize);
+    this.maximumSize = maximumSize;
+    this.maxAge = maxAge;
+    this.diskDirectory = diskDirectory;
+    this.templateWatcher = templateWatcher;
+    this.memoryCache =
+        CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(maxAge).build();
+  }
+
+  /** Returns the Kubernetes objects of the config file rendered with the template data. */
+  public ImmutableList<Object> render(
+      Map<String, String> templateDataMap, File configFile, boolean printRendered)
+      throws IOException, TemplateException {
+    AppBundle.Entry watched =
+        templateWatcher == null ? null : templateWatcher.get(configFile).orElse(null);
+    if (watched != null) {
+      return render(templateDataMap, watched, printRendered);
+    }
+    return render(
+        hash(templateDataMap, contentHash(configFile)),
+        () -> FreeMarkerUtil.replaceTemplates(templateDataMap, configFile),
+        printRendered);
+  }
+
+  /**
+   * Returns the Kubernetes objects of the bundle entry rendered with the template data. The entry
+   * shares cache entries with a config file of the same content.
+   */
+  public ImmutableList<Object> render(
+      Map<String, String> templateDataMap, AppBundle.Entry entry, boolean printRendered)
+      throws IOException, TemplateException {
+    return render(
+        hash(templateDataMap, entry.getHash()),
+        () -> FreeMarkerUtil.replaceTemplates(templateDataMap, entry),
+        printRendered);
+  }
+
+  @FunctionalInterface
+  private interface Renderer {
+    String render() throws IOException, TemplateException;
+  }
+
+  private ImmutableList<Object> render(String key, Renderer renderer, boolean printRendered)
+      throws IOException, TemplateException {
+    Manifest manifest = memoryCache.getIfPresent(key);
+    if (manifest == null) {
+      String rendered = readFromDisk(key);
+      if (rendered == null) {
+        rendered = renderer.render();
+        writeToDisk(key, rendered);
+      }
+      manifest = new Manifest(rendered, parse(rendered));
+      memoryCache.put(key, manifest);
+    }
+
+    if (printRendered) {
+      System.out.println(manifest.rendered);
+    }
+    return manifest.resources;
+  }
+
+  private static String contentHash(File configFile) throws IOException {
+    DeploymentStageEvent event = DeploymentStageEvent.begin(DeploymentStageEvent.TEMPLATE_READ);
+    try {
+      return AppBundle.contentHash(Files.readAllBytes(configFile.toPath()));
+    } finally {
+      event.file(configFile).commit();
+    }
+  }
+
+  /** Hashes the hash of the template content and the template data in key order. */
+  static String hash(Map<String, String> templateDataMap, String contentHash) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(contentHash, UTF_8);
+    for (Map.Entry<String, String> entry : new TreeMap<>(templateDataMap).entrySet()) {
+      // Separators keep different splits of the same characters apart.
+      hasher.putByte((byte) 0).putString(entry.getKey(), UTF_8);
+      // A presence marker keeps a null value apart from the string "null".
+      if (entry.getValue() == null) {
+        hasher.putByte((byte) 0);
+      } else {
+        hasher.putByte((byte) 1).putString(entry.getValue(), UTF_8);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private static ImmutableList<Object> parse(String rendered) throws IOException {
+    ImmutableList.Builder<Object> resources = ImmutableList.builder();
+    try (YamlDocumentWriter writer = new YamlDocumentWriter(resources::add, false)) {
+      writer.write(rendered);
+    }
+    return resources.build();
+  }
+
+  /** Returns the rendered text stored on disk for the key, or null if it is missing or expired. */
+  private String readFromDisk(String key) throws IOException {
+    if (diskDirectory == null) {
+      return null;
+    }
+    Path entry = diskDirectory.toPath().resolve(key + DISK_ENTRY_SUFFIX);
+    if (!Files.exists(entry) || isExpired(entry.toFile())) {
+      return null;
+    }
+    return new String(Files.readAllBytes(entry), UTF_8);
+  }
+
+  private void writeToDisk(String key, String rendered) throws IOException {
+    if (diskDirectory == null) {
+      return;
+    }
+    Files.createDirectories(diskDirectory.toPath());
+    // Write to a temporary file first, so concurrent readers never see a partial entry.
+    Path temporary = Files.createTempFile(diskDirectory.toPath(), key, ".tmp");
+    Files.write(temporary, rendered.getBytes(UTF_8));
+    Path entry = diskDirectory.toPath().resolve(key + DISK_ENTRY_SUFFIX);
+    try {
+      Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING);
+    }
+    pruneDisk();
+  }
+
+  /** Deletes expired disk entries and the oldest ones beyond maximumSize. */
+  private void pruneDisk() {
+    File[] entries = diskDirectory.listFiles((dir, name) -> name.endsWith(DISK_ENTRY_SUFFIX));
+    if (entries == null) {
+      return;
+    }
+    Arrays.sort(entries, Comparator.comparingLong(File::lastModified).reversed());
+    for (int i = 0; i < entries.length; i++) {
+      if (i >= maximumSize || isExpired(entries[i])) {
+        entries[i].delete();
+      }
+    }
+  }
+
+  private boolean isExpired(File entry) {
+    return System.currentTimeMillis() - entry.lastModified() > maxAge.toMillis();
+  }
+}
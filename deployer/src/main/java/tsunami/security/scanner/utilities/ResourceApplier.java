@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import io.kubernetes.client.custom.V1Patch;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.util.PatchUtils;
+import io.kubernetes.client.util.Yaml;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.function.Function;
+import okhttp3.Call;
+
+/**
+ * This class applies rendered resources of one kind, touching only what changed.
+ * Usage: new ResourceApplier<>(V1Service.class, V1Service::getMetadata, reader, creator,
+ *            patchCallFactory, apiClient).apply(resource);
+ * Purpose: Each applied object is annotated with a fingerprint of its rendered form. A resource is
+ *          created if it does not exist, skipped if the live object carries the same fingerprint,
+ *          and otherwise updated with a server-side apply patch.
+ */
+final class ResourceApplier<T> {
+
+  static final String FINGERPRINT_ANNOTATION = "tsunami-testbed/applied-fingerprint";
+  static final String FIELD_MANAGER = "tsunami-testbed";
+
+  @FunctionalInterface
+  interface Reader<T> {
+    T read(String name) throws ApiException;
+  }
+
+  @FunctionalInterface
+  interface Creator<T> {
+    void create(T resource) throws ApiException;
+  }
+
+  @FunctionalInterface
+  interface PatchCallFactory {
+    Call patchCall(String name, V1Patch patch) throws ApiException;
+  }
+
+  private final Class<T> type;
+  private final Function<T, V1ObjectMeta> metadataOf;
+  private final Reader<T> reader;
+  private final Creator<T> creator;
+  private final PatchCallFactory patchCallFactory;
+  private final ApiClient apiClient;
+
+  ResourceApplier(
+      Class<T> type,
+      Function<T, V1ObjectMeta> metadataOf,
+      Reader<T> reader,
+      Creator<T> creator,
+      PatchCallFactory patchCallFactory,
+      ApiClient apiClient) {
+    this.type = type;
+    this.metadataOf = metadataOf;
+    this.reader = reader;
+    this.creator = creator;
+    this.patchCallFactory = patchCallFactory;
+    this.apiClient = apiClient;
+  }
+
+  KubeJavaClientUtil.ApplyOutcome apply(Object object) throws ApiException {
+    return apply(object, ImmutableMap.of());
+  }
+
+  /**
+   * Applies the resource carrying the labels. The labels are left out of the fingerprint, so
+   * applying the same resource under labels of another deployment leaves it unchanged.
+   */
+  KubeJavaClientUtil.ApplyOutcome apply(Object object, Map<String, String> labels)
+      throws ApiException {
+    T resource = type.cast(object);
+    String name = metadataOf.apply(resource).getName();
+    String fingerprint = fingerprint(resource);
+
+    T live;
+    try {
+      live = reader.read(name);
+    } catch (ApiException e) {
+      if (e.getCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+        throw e;
+      }
+      live = null;
+    }
+    if (live != null && fingerprint.equals(fingerprintOf(live))) {
+      return KubeJavaClientUtil.ApplyOutcome.UNCHANGED;
+    }
+
+    // Rendered resources may be shared through a cache, so label and annotate a copy.
+    T annotated = KubeJavaClientUtil.deepCopy(resource, type);
+    V1ObjectMeta metadata = metadataOf.apply(annotated);
+    labels.forEach(metadata::putLabelsItem);
+    metadata.putAnnotationsItem(FINGERPRINT_ANNOTATION, fingerprint);
+    if (live == null) {
+      creator.create(annotated);
+      return KubeJavaClientUtil.ApplyOutcome.CREATED;
+    }
+    PatchUtils.patch(
+        type,
+        () -> patchCallFactory.patchCall(name, new V1Patch(Yaml.dump(annotated))),
+        V1Patch.PATCH_FORMAT_APPLY_YAML,
+        apiClient);
+    return KubeJavaClientUtil.ApplyOutcome.PATCHED;
+  }
+
+  private String fingerprintOf(T live) {
+    Map<String, String> annotations = metadataOf.apply(live).getAnnotations();
+    return annotations == null ? null : annotations.get(FINGERPRINT_ANNOTATION);
+  }
+
+  /** Returns a hash of the resource as rendered, before any fingerprint annotation is added. */
+  static String fingerprint(Object resource) {
+    return Hashing.sha256().hashString(Yaml.dump(resource), UTF_8).toString();
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import freemarker.template.TemplateException;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1PersistentVolumeClaim;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1Service;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * This class plans and runs the creation of all resources of an application.
+ * Usage: new ResourceCreationPlanner(kubeJavaClientUtil, parallelism)
+ *            .createResources(templateDataMap, configFiles, printRendered);
+ * Purpose: Render all config files in parallel, then create the resources stage by stage in kind
+ *          dependency order (PVCs and Services before the workloads that use them). Resources in
+ *          the same stage are created concurrently, at most parallelism at a time. If a
+ *          RenderedManifestCache is given, rendered config files are taken from it. In apply
+ *          mode, existing resources are compared to the rendered ones and only changed or missing
+ *          ones are written, so a redeploy or a resumed failed deployment can run again.
+ */
+public final class ResourceCreationPlanner {
+
+  // Resources are created in increasing stage order; kinds that are not listed go last.
+  private static final ImmutableMap<Class<?>, Integer> STAGE_BY_CLASS =
+      ImmutableMap.of(
+          V1PersistentVolumeClaim.class, 0,
+          V1Service.class, 0,
+          V1Deployment.class, 1,
+          V1Pod.class, 1);
+  private static final int LAST_STAGE = 2;
+
+  private final KubeJavaClientUtil kubeJavaClientUtil;
+  private final int parallelism;
+  private final RenderedManifestCache manifestCache;
+  private final boolean apply;
+
+  public ResourceCreationPlanner(KubeJavaClientUtil kubeJavaClientUtil, int parallelism) {
+    this(kubeJavaClientUtil, parallelism, null);
+  }
+
+  public ResourceCreationPlanner(
+      KubeJavaClientUtil kubeJavaClientUtil, int parallelism, RenderedManifestCache manifestCache) {
+    this(kubeJavaClientUtil, parallelism, manifestCache, false);
+  }
+
+  public ResourceCreationPlanner(
+      KubeJavaClientUtil kubeJavaClientUtil,
+      int parallelism,
+      RenderedManifestCache manifestCache,
+      boolean apply) {
+    checkArgument(parallelism > 0, "parallelism must be positive, got %s", parallelism);
+    this.kubeJavaClientUtil = kubeJavaClientUtil;
+    this.parallelism = parallelism;
+    this.manifestCache = manifestCache;
+    this.apply = apply;
+  }
+
+  public void createResources(
+      Map<String, String> templateDataMap, List<File> configFiles, boolean printRendered)
+      throws ApiException, IOException, TemplateException {
+    List<Callable<ImmutableList<Object>>> renderers = new ArrayList<>();
+    for (File configFile : configFiles) {
+      renderers.add(() -> renderResources(templateDataMap, configFile, printRendered));
+    }
+    createResources(renderers);
+  }
+
+  /** Creates the resources of all config files of the application bundle. */
+  public void createResources(
+      Map<String, String> templateDataMap, AppBundle bundle, boolean printRendered)
+      throws ApiException, IOException, TemplateException {
+    List<Callable<ImmutableList<Object>>> renderers = new ArrayList<>();
+    for (AppBundle.Entry entry : bundle.getEntries()) {
+      renderers.add(() -> renderResources(templateDataMap, entry, printRendered));
+    }
+    createResources(renderers);
+  }
+
+  private void createResources(List<Callable<ImmutableList<Object>>> renderers)
+      throws ApiException, IOException, TemplateException {
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(parallelism));
+    try {
+      // Render and parse every config file in parallel.
+      List<ListenableFuture<ImmutableList<Object>>> renderedFiles = new ArrayList<>();
+      for (Callable<ImmutableList<Object>> renderer : renderers) {
+        renderedFiles.add(executor.submit(renderer));
+      }
+      List<ImmutableList<Object>> resourcesByFile = getOrRethrow(Futures.allAsList(renderedFiles));
+
+      // Create one stage at a time, everything within a stage concurrently.
+      Multiset<KubeJavaClientUtil.ApplyOutcome> outcomes = ConcurrentHashMultiset.create();
+      for (List<Object> stage : planStages(resourcesByFile)) {
+        List<ListenableFuture<Void>> createdResources = new ArrayList<>();
+        for (Object resource : stage) {
+          createdResources.add(
+              executor.submit(
+                  () -> {
+                    if (apply) {
+                      outcomes.add(kubeJavaClientUtil.applyResource(resource));
+                    } else {
+                      kubeJavaClientUtil.createResource(resource);
+                    }
+                    return null;
+                  }));
+        }
+        getOrRethrow(Futures.allAsList(createdResources));
+      }
+      if (apply) {
+        System.out.println("Applied resources: " + outcomes);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private ImmutableList<Object> renderResources(
+      Map<String, String> templateDataMap, File configFile, boolean printRendered)
+      throws IOException, TemplateException {
+    if (manifestCache != null) {
+      return manifestCache.render(templateDataMap, configFile, printRendered);
+    }
+    ImmutableList.Builder<Object> resources = ImmutableList.builder();
+    try (YamlDocumentWriter writer = new YamlDocumentWriter(resources::add, printRendered)) {
+      FreeMarkerUtil.renderTemplates(templateDataMap, configFile, writer);
+    }
+    return resources.build();
+  }
+
+  private ImmutableList<Object> renderResources(
+      Map<String, String> templateDataMap, AppBundle.Entry entry, boolean printRendered)
+      throws IOException, TemplateException {
+    if (manifestCache != null) {
+      return manifestCache.render(templateDataMap, entry, printRendered);
+    }
+    ImmutableList.Builder<Object> resources = ImmutableList.builder();
+    try (YamlDocumentWriter writer = new YamlDocumentWriter(resources::add, printRendered)) {
+      FreeMarkerUtil.renderTemplates(templateDataMap, entry, writer);
+    }
+    return resources.build();
+  }
+
+  /** Groups resources by creation stage, keeping the file and document order within a stage. */
+  static ImmutableList<ImmutableList<Object>> planStages(List<? extends List<Object>> resources) {
+    TreeMap<Integer, ImmutableList.Builder<Object>> stages = new TreeMap<>();
+    for (List<Object> fileResources : resources) {
+      for (Object resource : fileResources) {
+        int stage = STAGE_BY_CLASS.getOrDefault(resource.getClass(), LAST_STAGE);
+        stages.computeIfAbsent(stage, unused -> ImmutableList.builder()).add(resource);
+      }
+    }
+    ImmutableList.Builder<ImmutableList<Object>> plan = ImmutableList.builder();
+    stages.values().forEach(stage -> plan.add(stage.build()));
+    return plan.build();
+  }
+
+  /** Waits for the future and rethrows the checked exception of the failed task, if any. */
+  private static <T> T getOrRethrow(ListenableFuture<T> future)
+      throws ApiException, IOException, TemplateException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while creating resources.");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ApiException) {
+        throw (ApiException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof TemplateException) {
+        throw (TemplateException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+}
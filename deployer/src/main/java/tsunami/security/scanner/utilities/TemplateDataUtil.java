@@ -16,10 +16,13 @@
 
 package tsunami.security.scanner.utilities;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import java.lang.reflect.Type;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -28,22 +31,104 @@ import java.util.Map;
  * Input:
  *      templateDataJson: input template data in Json String type.
  * Output:
- *      A map which reflects a correspondence of input json keys and values.
+ *      A map which reflects a correspondence of input json keys and values. Values of nested
+ *      objects are keyed by their dotted path, so {'mysql':{'version':'5.6'}} gives mysql.version.
  * Deprecated usage: FreeMarkerUtil.replaceTemplates(String version, String password, File configFile);
+ *
+ * The Json is read in a single streaming pass, without building a Gson instance or tree per call.
+ * toTemplateModel turns dotted keys back into nested hashes, so templates can use ${mysql.version}.
  */
 public final class TemplateDataUtil {
 
+  private static final char PATH_SEPARATOR = '.';
+
   private TemplateDataUtil() {}
 
+  /**
+   * Returns the template data of the Json object, or null if the input is null or blank. Numbers
+   * and booleans are kept as their text.
+   *
+   * @throws JsonParseException if the input is not a Json object or holds an array
+   */
   public static Map<String, String> parseTemplateDataJson(String templateDataJson) {
+    if (templateDataJson == null || templateDataJson.trim().isEmpty()) {
+      return null;
+    }
+    JsonReader reader = new JsonReader(new StringReader(templateDataJson));
+    reader.setLenient(true);
+    Map<String, String> templateDataMap = new LinkedHashMap<>();
+    try {
+      readObject(reader, "", templateDataMap);
+      if (reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new JsonSyntaxException("Template data has content after its Json object.");
+      }
+    } catch (IOException | IllegalStateException e) {
+      throw new JsonSyntaxException(e);
+    }
+    return templateDataMap;
+  }
 
-    GsonBuilder builder = new GsonBuilder();
-    builder.setPrettyPrinting();
+  private static void readObject(JsonReader reader, String prefix, Map<String, String> values)
+      throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String key = prefix + reader.nextName();
+      switch (reader.peek()) {
+        case BEGIN_OBJECT:
+          readObject(reader, key + PATH_SEPARATOR, values);
+          break;
+        case BOOLEAN:
+          values.put(key, Boolean.toString(reader.nextBoolean()));
+          break;
+        case NULL:
+          reader.nextNull();
+          values.put(key, null);
+          break;
+        case BEGIN_ARRAY:
+          throw new JsonSyntaxException("Template data " + key + " must not be an array.");
+        default:
+          values.put(key, reader.nextString());
+      }
+    }
+    reader.endObject();
+  }
 
-    Gson gson = builder.create();
-    Type type = new TypeToken<Map<String, String>>(){}.getType();
-    Map<String, String> templateDataMap = gson.fromJson(templateDataJson, type);
+  /**
+   * Returns the FreeMarker model of the template data. Keys with a dotted path are also reachable
+   * as nested hashes, unless their first segment is a key of its own. Template data without dotted
+   * keys is returned as is.
+   */
+  public static Map<String, ?> toTemplateModel(Map<String, String> templateDataMap) {
+    if (templateDataMap == null
+        || templateDataMap.keySet().stream().noneMatch(key -> key.indexOf(PATH_SEPARATOR) > 0)) {
+      return templateDataMap;
+    }
+    Map<String, Object> model = new LinkedHashMap<>(templateDataMap);
+    for (Map.Entry<String, String> entry : templateDataMap.entrySet()) {
+      String key = entry.getKey();
+      if (key.indexOf(PATH_SEPARATOR) <= 0 || templateDataMap.containsKey(rootOf(key))) {
+        continue;
+      }
+      putPath(model, key, entry.getValue());
+    }
+    return model;
+  }
 
-    return templateDataMap;
+  private static String rootOf(String key) {
+    return key.substring(0, key.indexOf(PATH_SEPARATOR));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void putPath(Map<String, Object> model, String path, String value) {
+    int separator = path.indexOf(PATH_SEPARATOR);
+    if (separator <= 0) {
+      model.putIfAbsent(path, value);
+      return;
+    }
+    Object child =
+        model.computeIfAbsent(path.substring(0, separator), unused -> new LinkedHashMap<>());
+    if (child instanceof Map) {
+      putPath((Map<String, Object>) child, path.substring(separator + 1), value);
+    }
   }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class keeps the config files of watched directories resident in memory and up to date.
+ * Usage: TemplateWatcher watcher = TemplateWatcher.start(directories);
+ *        watcher.get(configFile).ifPresent(entry -> ...); watcher.close();
+ * Purpose: Every file under the directories is read and its template compiled once, and a
+ *          WatchService thread re-reads only the files that are created or modified, and drops the
+ *          deleted ones. Callers rendering a watched file then never touch the filesystem, while
+ *          edits are picked up within moments. Files outside the directories are not served, so
+ *          callers read them as before. Symbolic links are followed, and a changed link reloads
+ *          the directory holding it, so a mounted ConfigMap, which is updated by swapping its
+ *          "..data" link to a new folder, is picked up under the paths callers use.
+ */
+public final class TemplateWatcher implements AutoCloseable {
+
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directoriesByKey = new ConcurrentHashMap<>();
+  private final Map<Path, AppBundle.Entry> entries = new ConcurrentHashMap<>();
+  private final Thread thread;
+
+  private TemplateWatcher(WatchService watchService) {
+    this.watchService = watchService;
+    this.thread = new Thread(this::processEvents, "template-watcher");
+    this.thread.setDaemon(true);
+  }
+
+  /** Loads every file under the directories and starts watching them for changes. */
+  public static TemplateWatcher start(List<File> directories) throws IOException {
+    TemplateWatcher watcher = new TemplateWatcher(FileSystems.getDefault().newWatchService());
+    try {
+      for (File directory : directories) {
+        watcher.registerTree(directory.toPath().toAbsolutePath().normalize());
+      }
+    } catch (IOException e) {
+      watcher.close();
+      throw e;
+    }
+    watcher.thread.start();
+    return watcher;
+  }
+
+  /** Returns the resident entry of the config file, if it is under a watched directory. */
+  public Optional<AppBundle.Entry> get(File configFile) {
+    return Optional.ofNullable(entries.get(configFile.toPath().toAbsolutePath().normalize()));
+  }
+
+  /**
+   * Watches the directory and its subdirectories, then loads their files, and returns the paths of
+   * the files loaded.
+   */
+  private Set<Path> registerTree(Path root) throws IOException {
+    for (Path path : walk(root)) {
+      if (Files.isDirectory(path)) {
+        directoriesByKey.put(
+            path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+      }
+    }
+    // Walking again after registering means no file created or edited meanwhile is missed.
+    Set<Path> loaded = new HashSet<>();
+    for (Path path : walk(root)) {
+      if (Files.isRegularFile(path)) {
+        load(path);
+        loaded.add(path);
+      }
+    }
+    return loaded;
+  }
+
+  /** Loads the directory again and drops the entries of files no longer found under it. */
+  private void reloadTree(Path root) throws IOException {
+    Set<Path> loaded = registerTree(root);
+    for (Path path : ImmutableList.copyOf(entries.keySet())) {
+      if (path.startsWith(root) && !loaded.contains(path)) {
+        entries.remove(path);
+      }
+    }
+  }
+
+  // Returns the paths under root, following symbolic links as callers' paths do.
+  private static List<Path> walk(Path root) throws IOException {
+    try (Stream<Path> walk = Files.walk(root, FileVisitOption.FOLLOW_LINKS)) {
+      return walk.collect(Collectors.toList());
+    }
+  }
+
+  /** Reads the file and compiles its template, replacing the entry of its earlier content. */
+  private void load(Path path) throws IOException {
+    AppBundle.Entry entry;
+    try {
+      entry = AppBundle.Entry.of(path.toString(), Files.readAllBytes(path));
+    } catch (NoSuchFileException e) {
+      // Deleted since the event; its delete event follows.
+      return;
+    }
+    try {
+      FreeMarkerUtil.getTemplate(entry);
+    } catch (IOException e) {
+      // A file caught in the middle of a write may not parse yet; it is rendered, and fails, only
+      // if it is still broken when used.
+    }
+    entries.put(path, entry);
+  }
+
+  private void processEvents() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      Path directory = directoriesByKey.get(key);
+      if (directory != null) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+          try {
+            handle(directory, event);
+          } catch (IOException e) {
+            System.out.println("Failed to reload templates under " + directory + ": " + e);
+          }
+        }
+      }
+      if (!key.reset()) {
+        directoriesByKey.remove(key);
+      }
+    }
+  }
+
+  private void handle(Path directory, WatchEvent<?> event) throws IOException {
+    if (event.kind() == OVERFLOW) {
+      // Events were lost, so reload the whole directory.
+      reloadTree(directory);
+      return;
+    }
+    Path path = directory.resolve((Path) event.context());
+    if (event.kind() == ENTRY_DELETE) {
+      removeTree(path);
+    } else if (Files.isSymbolicLink(path)) {
+      // Files of the directory may be reached through the link, under paths that saw no event.
+      reloadTree(directory);
+    } else if (Files.isDirectory(path)) {
+      if (event.kind() == ENTRY_CREATE) {
+        registerTree(path);
+      }
+    } else if (Files.isRegularFile(path)) {
+      load(path);
+    }
+  }
+
+  private void removeTree(Path root) {
+    for (Path path : ImmutableList.copyOf(entries.keySet())) {
+      if (path.startsWith(root)) {
+        entries.remove(path);
+      }
+    }
+  }
+
+  /** Stops watching. Entries stay readable but are no longer updated. */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    thread.interrupt();
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.util.Yaml;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class is a Writer which splits rendered config into YAML documents as it is written.
+ * Usage: template.process(templateDataMap, new YamlDocumentWriter(handler, printDocuments));
+ * Purpose: Each document is parsed into a Kubernetes object and passed to the handler as soon as
+ *          its "---" separator (or the end of the stream) is written, so only one document is held
+ *          in memory at a time instead of the whole rendered config.
+ */
+public final class YamlDocumentWriter extends Writer {
+
+  /** Receives each Kubernetes object parsed from the rendered config. */
+  @FunctionalInterface
+  public interface DocumentHandler {
+    void handle(Object resource) throws ApiException;
+  }
+
+  /** Carries an {@link ApiException} thrown by the handler through the Writer interface. */
+  public static final class HandlerException extends IOException {
+    HandlerException(ApiException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized ApiException getCause() {
+      return (ApiException) super.getCause();
+    }
+  }
+
+  private final DocumentHandler handler;
+  private final boolean printDocuments;
+  private final StringBuilder document = new StringBuilder();
+  // Index in document at which the line currently being written starts.
+  private int lineStart = 0;
+  private boolean closed = false;
+
+  public YamlDocumentWriter(DocumentHandler handler, boolean printDocuments) {
+    this.handler = handler;
+    this.printDocuments = printDocuments;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Writer is closed.");
+    }
+    for (int i = off; i < off + len; i++) {
+      document.append(cbuf[i]);
+      if (cbuf[i] == '\n') {
+        endLine();
+      }
+    }
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (lineStart < document.length()) {
+      // End the unterminated last line, so a separator on it is still recognised.
+      document.append('\n');
+      endLine();
+    }
+    emitDocument(document.toString());
+    document.setLength(0);
+  }
+
+  private void endLine() throws IOException {
+    if (isMarker("---")) {
+      // Anything after the separator on the same line belongs to the next document.
+      String next = document.substring(lineStart + 3);
+      String current = document.substring(0, lineStart);
+      document.setLength(0);
+      if (!next.trim().isEmpty()) {
+        document.append(next);
+      }
+      emitDocument(current);
+    } else if (isMarker("...")) {
+      String current = document.substring(0, lineStart);
+      document.setLength(0);
+      emitDocument(current);
+    }
+    lineStart = document.length();
+  }
+
+  private boolean isMarker(String marker) {
+    int end = lineStart + marker.length();
+    if (end >= document.length()) {
+      return false;
+    }
+    return document.substring(lineStart, end).equals(marker)
+        && Character.isWhitespace(document.charAt(end));
+  }
+
+  private void emitDocument(String yaml) throws IOException {
+    if (!hasContent(yaml)) {
+      return;
+    }
+    if (printDocuments) {
+      System.out.println(yaml);
+    }
+    DeploymentStageEvent event = DeploymentStageEvent.begin(DeploymentStageEvent.YAML_LOAD);
+    Object resource;
+    try {
+      resource = Yaml.load(yaml);
+    } finally {
+      event.commit();
+    }
+    try {
+      handler.handle(resource);
+    } catch (ApiException e) {
+      throw new HandlerException(e);
+    }
+  }
+
+  private static boolean hasContent(String yaml) {
+    for (String line : yaml.split("\n")) {
+      String trimmed = line.trim();
+      if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AppBundleTest {
+
+  private static final String SERVICE_TEMPLATE =
+      "apiVersion: v1\n" + "kind: Service\n" + "metadata:\n" + "  name: ${app}-${ version }\n";
+  private static final String DEPLOYMENT_TEMPLATE =
+      "apiVersion: apps/v1\n" + "kind: Deployment\n" + "metadata:\n" + "  name: ${app}\n";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File newApplicationDirectory() throws IOException {
+    File applicationDirectory = folder.newFolder("jupyter");
+    Files.asCharSink(new File(applicationDirectory, "service.yaml"), UTF_8).write(SERVICE_TEMPLATE);
+    File nested = new File(applicationDirectory, "workloads");
+    nested.mkdir();
+    Files.asCharSink(new File(nested, "deployment.yaml"), UTF_8).write(DEPLOYMENT_TEMPLATE);
+    return applicationDirectory;
+  }
+
+  @Test
+  public void open_whenWritten_returnsIndexedEntriesInPathOrder() throws IOException {
+    File bundleFile = new File(folder.getRoot(), "jupyter.bundle");
+
+    AppBundle.write(newApplicationDirectory(), bundleFile);
+    AppBundle bundle = AppBundle.open(bundleFile);
+
+    assertThat(bundle.getEntries()).hasSize(2);
+    AppBundle.Entry service = bundle.getEntries().get(0);
+    assertThat(service.getPath()).isEqualTo("service.yaml");
+    assertThat(service.getContent()).isEqualTo(SERVICE_TEMPLATE);
+    assertThat(service.getHash())
+        .isEqualTo(AppBundle.contentHash(SERVICE_TEMPLATE.getBytes(UTF_8)));
+    assertThat(service.getVariables()).containsExactly("app", "version").inOrder();
+    AppBundle.Entry deployment = bundle.getEntries().get(1);
+    assertThat(deployment.getPath()).isEqualTo("workloads/deployment.yaml");
+    assertThat(deployment.getContent()).isEqualTo(DEPLOYMENT_TEMPLATE);
+  }
+
+  @Test
+  public void open_whenFileIsNotBundle_throws() throws IOException {
+    File notBundle = folder.newFile("jupyter.bundle");
+    Files.asCharSink(notBundle, UTF_8).write(SERVICE_TEMPLATE);
+
+    assertThrows(IOException.class, () -> AppBundle.open(notBundle));
+  }
+
+  @Test
+  public void open_whenBundleTruncated_throws() throws IOException {
+    File bundleFile = new File(folder.getRoot(), "jupyter.bundle");
+    AppBundle.write(newApplicationDirectory(), bundleFile);
+    byte[] bytes = Files.toByteArray(bundleFile);
+    Files.write(Arrays.copyOf(bytes, bytes.length - 10), bundleFile);
+
+    assertThrows(IOException.class, () -> AppBundle.open(bundleFile));
+  }
+}
@@ -94,6 +94,44 @@ public final class AppTest {
             "default", (V1Service) Yaml.load(RESOURCE_CONFIG), null, null, null);
   }
 
+  @Test
+  public void runMain_whenBundleExists_createsResourcesFromBundle()
+      throws ApiException, IOException, TemplateException {
+    File jupyterFolder = folder.newFolder("source", "jupyter");
+    Files.asCharSink(new File(jupyterFolder, "jupyter.yaml"), Charset.forName("UTF-8"))
+        .write(RESOURCE_CONFIG);
+    File configPath = folder.newFolder("bundles");
+    AppBundle.write(jupyterFolder, AppBundleBuilder.bundleFileOf(configPath, "jupyter"));
+
+    String[] args = new String[] {"--app", "jupyter", "--configPath", configPath.getPath()};
+
+    classUnderTest.run(args);
+
+    verify(mockCoreV1Api)
+        .createNamespacedService(
+            "default", (V1Service) Yaml.load(RESOURCE_CONFIG), null, null, null);
+  }
+
+  @Test
+  public void runMain_whenConfigFileNewerThanBundle_createsResourcesFromDirectory()
+      throws ApiException, IOException, TemplateException {
+    File jupyterFolder = folder.newFolder("jupyter");
+    File configFile = new File(jupyterFolder, "jupyter.yaml");
+    Files.asCharSink(configFile, Charset.forName("UTF-8")).write(RESOURCE_CONFIG);
+    File bundleFile = AppBundleBuilder.bundleFileOf(folder.getRoot(), "jupyter");
+    AppBundle.write(jupyterFolder, bundleFile);
+    String editedConfig = RESOURCE_CONFIG.replace("port: 80", "port: 8080");
+    Files.asCharSink(configFile, Charset.forName("UTF-8")).write(editedConfig);
+    configFile.setLastModified(bundleFile.lastModified() + 1000);
+
+    String[] args = new String[] {"--app", "jupyter", "--configPath", folder.getRoot().getPath()};
+
+    classUnderTest.run(args);
+
+    verify(mockCoreV1Api)
+        .createNamespacedService("default", (V1Service) Yaml.load(editedConfig), null, null, null);
+  }
+
   @Test
   public void runMain_whenConfigPathIsMissing_success()
       throws ApiException, IOException, TemplateException {
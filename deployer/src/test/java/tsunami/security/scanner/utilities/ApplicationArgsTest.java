@@ -49,6 +49,49 @@ public final class ApplicationArgsTest {
     assertThat(jArgs.getTemplateData()).isEqualTo("{'jupyter_version':'notebook-6.0.3'}");
   }
 
+  @Test
+  public void parse_whenTemplateValuesGiven_parsesThemInOrder() {
+    String[] args =
+        new String[] {
+          "--app",
+          "jupyter",
+          "--templateValue",
+          "jupyter_version=notebook-6.0.3",
+          "--templateValue",
+          "token=a=b"
+        };
+
+    ApplicationArgs jArgs = new ApplicationArgs();
+    JCommander cmd = JCommander.newBuilder().addObject(jArgs).build();
+    cmd.parse(args);
+
+    assertThat(jArgs.getTemplateValues())
+        .containsExactly("jupyter_version", "notebook-6.0.3", "token", "a=b")
+        .inOrder();
+  }
+
+  @Test
+  public void parse_whenNamespaceMissing_usesDefaultNamespace() {
+    String[] args = new String[] {"--app", "jupyter"};
+
+    ApplicationArgs jArgs = new ApplicationArgs();
+    JCommander cmd = JCommander.newBuilder().addObject(jArgs).build();
+    cmd.parse(args);
+
+    assertThat(jArgs.getNamespace()).isEqualTo("default");
+  }
+
+  @Test
+  public void parse_whenNamespaceGiven_parsesNamespace() {
+    String[] args = new String[] {"--app", "jupyter", "--namespace", "tenant-a"};
+
+    ApplicationArgs jArgs = new ApplicationArgs();
+    JCommander cmd = JCommander.newBuilder().addObject(jArgs).build();
+    cmd.parse(args);
+
+    assertThat(jArgs.getNamespace()).isEqualTo("tenant-a");
+  }
+
   @Test
   public void parse_whenInvalidFlags_parseFailed() {
     String[] args =
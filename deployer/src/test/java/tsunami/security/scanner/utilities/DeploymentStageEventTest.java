@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DeploymentStageEventTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private List<RecordedEvent> record(Runnable stages) throws IOException {
+    File dump = new File(folder.getRoot(), "recording.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(DeploymentStageEvent.class);
+      recording.start();
+      stages.run();
+      recording.stop();
+      recording.dump(dump.toPath());
+    }
+    return RecordingFile.readAllEvents(dump.toPath()).stream()
+        .filter(event -> event.getEventType().getName().equals("tsunami.testbed.DeploymentStage"))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  @SuppressWarnings("try") // The scope is only entered and closed.
+  public void commit_whenInScope_recordsDeploymentOfScope() throws IOException {
+    List<RecordedEvent> events =
+        record(
+            () -> {
+              try (DeploymentStageEvent.Scope scope =
+                  DeploymentStageEvent.enter("abc123", "jupyter")) {
+                DeploymentStageEvent.begin(DeploymentStageEvent.CREATE)
+                    .object("V1Service", "jupyter")
+                    .commit();
+              }
+            });
+
+    assertThat(events).hasSize(1);
+    RecordedEvent event = events.get(0);
+    assertThat(event.getString("deploymentId")).isEqualTo("abc123");
+    assertThat(event.getString("application")).isEqualTo("jupyter");
+    assertThat(event.getString("stage")).isEqualTo(DeploymentStageEvent.CREATE);
+    assertThat(event.getString("kind")).isEqualTo("V1Service");
+    assertThat(event.getString("objectName")).isEqualTo("jupyter");
+  }
+
+  @Test
+  public void commit_afterScopeClosed_recordsProcessDefaults() throws IOException {
+    DeploymentStageEvent.setProcessDefaults("process", "wordpress");
+    List<RecordedEvent> events =
+        record(
+            () -> {
+              DeploymentStageEvent.enter("abc123", "jupyter").close();
+              DeploymentStageEvent.begin(DeploymentStageEvent.RENDER)
+                  .file(new File("wordpress.yaml"))
+                  .commit();
+            });
+    DeploymentStageEvent.setProcessDefaults("", "");
+
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getString("deploymentId")).isEqualTo("process");
+    assertThat(events.get(0).getString("file")).isEqualTo("wordpress.yaml");
+  }
+
+  @Test
+  @SuppressWarnings("try") // The scope is only entered and closed.
+  public void begin_withDeployment_recordsGivenDeploymentOverScope() throws IOException {
+    List<RecordedEvent> events =
+        record(
+            () -> {
+              try (DeploymentStageEvent.Scope scope =
+                  DeploymentStageEvent.enter("abc123", "jupyter")) {
+                DeploymentStageEvent.begin(
+                        DeploymentStageEvent.DEPLOYER_JOB_CREATE, "def456", "mysql")
+                    .commit();
+              }
+            });
+
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getString("deploymentId")).isEqualTo("def456");
+    assertThat(events.get(0).getString("application")).isEqualTo("mysql");
+  }
+}
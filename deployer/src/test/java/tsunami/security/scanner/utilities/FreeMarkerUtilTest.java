@@ -21,10 +21,16 @@ import static org.junit.Assert.assertThrows;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
+import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -65,4 +71,116 @@ public final class FreeMarkerUtilTest {
         TemplateException.class,
         () -> FreeMarkerUtil.replaceTemplates(templateDataMap, configFile));
   }
+
+  @Test
+  public void replaceTemplates_whenTemplateDataKeysDotted_rendersNestedValues()
+      throws IOException, TemplateException {
+    ImmutableMap<String, String> templateDataMap = ImmutableMap.of("mysql.version", "5.6");
+
+    File configFile = folder.newFile("test.yaml");
+    Files.asCharSink(configFile, Charset.forName("UTF-8"))
+        .write("mysql_version:${mysql.version}\n");
+
+    String res = FreeMarkerUtil.replaceTemplates(templateDataMap, configFile);
+
+    assertThat(res).isEqualTo("mysql_version:5.6\n");
+  }
+
+  @Test
+  public void replaceTemplates_whenTemplateIncludesRelativePath_rendersIncludedFile()
+      throws IOException, TemplateException {
+    ImmutableMap<String, String> templateDataMap =
+        ImmutableMap.of("jupyter_version", "notebook-6.0.3");
+    File configDirectory = folder.newFolder("jupyter");
+    File commonDirectory = new File(configDirectory, "common");
+    commonDirectory.mkdir();
+    Files.asCharSink(new File(commonDirectory, "labels.ftl"), Charset.forName("UTF-8"))
+        .write("app:jupyter\n");
+    Files.asCharSink(new File(commonDirectory, "macros.ftl"), Charset.forName("UTF-8"))
+        .write("<#macro version>${jupyter_version}</#macro>");
+    File configFile = new File(configDirectory, "test.yaml");
+    Files.asCharSink(configFile, Charset.forName("UTF-8"))
+        .write(
+            "<#import \"common/macros.ftl\" as m><#include \"common/labels.ftl\">"
+                + "jupyter_version:<@m.version/>\n");
+
+    String res = FreeMarkerUtil.replaceTemplates(templateDataMap, configFile);
+
+    assertThat(res).isEqualTo("app:jupyter\njupyter_version:notebook-6.0.3\n");
+  }
+
+  @Test
+  public void replaceTemplates_whenWatchedEntryIncludesRelativePath_rendersIncludedFile()
+      throws IOException, TemplateException {
+    File configDirectory = folder.newFolder("jupyter");
+    Files.asCharSink(new File(configDirectory, "labels.ftl"), Charset.forName("UTF-8"))
+        .write("app:${app}\n");
+    File configFile = new File(configDirectory, "test.yaml");
+    AppBundle.Entry entry =
+        AppBundle.Entry.of(
+            configFile.getAbsolutePath(),
+            "<#include \"labels.ftl\">".getBytes(Charset.forName("UTF-8")));
+
+    String res = FreeMarkerUtil.replaceTemplates(ImmutableMap.of("app", "jupyter"), entry);
+
+    assertThat(res).isEqualTo("app:jupyter\n");
+  }
+
+  @Test
+  public void getTemplate_whenFileUnchanged_returnsCachedTemplate() throws IOException {
+    File configFile = folder.newFile("test.yaml");
+    Files.asCharSink(configFile, Charset.forName("UTF-8"))
+        .write("jupyter_version:${jupyter_version}\n");
+
+    Template first = FreeMarkerUtil.getTemplate(configFile);
+    Template second = FreeMarkerUtil.getTemplate(configFile);
+
+    assertThat(second).isSameInstanceAs(first);
+  }
+
+  @Test
+  public void replaceTemplates_whenFileModified_rendersNewContent()
+      throws IOException, TemplateException {
+    ImmutableMap<String, String> templateDataMap =
+        ImmutableMap.of("jupyter_version", "notebook-6.0.3");
+    File configFile = folder.newFile("test.yaml");
+    Files.asCharSink(configFile, Charset.forName("UTF-8"))
+        .write("jupyter_version:${jupyter_version}\n");
+    FreeMarkerUtil.replaceTemplates(templateDataMap, configFile);
+
+    Files.asCharSink(configFile, Charset.forName("UTF-8")).write("version:${jupyter_version}\n");
+    configFile.setLastModified(configFile.lastModified() + 1000);
+    String res = FreeMarkerUtil.replaceTemplates(templateDataMap, configFile);
+
+    assertThat(res).isEqualTo("version:notebook-6.0.3\n");
+  }
+
+  @Test
+  public void replaceTemplates_whenCalledConcurrentlyFromDifferentDirectories_success()
+      throws Exception {
+    List<File> configFiles = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      File configFile = new File(folder.newFolder("app" + i), "test.yaml");
+      Files.asCharSink(configFile, Charset.forName("UTF-8")).write("app" + i + ":${version}\n");
+      configFiles.add(configFile);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (File configFile : configFiles) {
+        results.add(
+            executor.submit(
+                () ->
+                    FreeMarkerUtil.replaceTemplates(
+                        ImmutableMap.of("version", "1.0"), configFile)));
+      }
+
+      for (int i = 0; i < results.size(); i++) {
+        assertThat(results.get(i).get()).isEqualTo("app" + i + ":1.0\n");
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import okhttp3.HttpUrl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class KubeApiMetricsTest {
+
+  private static HttpUrl url(String path) {
+    return HttpUrl.get("https://kubernetes.default.svc" + path);
+  }
+
+  @Test
+  public void verb_whenGetOfNamedResource_returnsGet() {
+    HttpUrl url = url("/api/v1/namespaces/default/services/jupyter");
+
+    assertThat(KubeApiMetrics.verb("GET", url.pathSegments(), null)).isEqualTo("get");
+    assertThat(KubeApiMetrics.resource(url.pathSegments())).isEqualTo("services");
+  }
+
+  @Test
+  public void verb_whenGetOfCollection_returnsListOrWatch() {
+    HttpUrl url = url("/apis/batch/v1/namespaces/default/jobs");
+
+    assertThat(KubeApiMetrics.verb("GET", url.pathSegments(), null)).isEqualTo("list");
+    assertThat(KubeApiMetrics.verb("GET", url.pathSegments(), "true")).isEqualTo("watch");
+    assertThat(KubeApiMetrics.resource(url.pathSegments())).isEqualTo("jobs");
+  }
+
+  @Test
+  public void verb_whenDeleteOfCollection_returnsDeleteCollection() {
+    HttpUrl url = url("/apis/apps/v1/namespaces/default/deployments");
+
+    assertThat(KubeApiMetrics.verb("DELETE", url.pathSegments(), null))
+        .isEqualTo("deletecollection");
+    assertThat(KubeApiMetrics.verb("POST", url.pathSegments(), null)).isEqualTo("create");
+  }
+
+  @Test
+  public void resource_whenSubresourceOrClusterScoped_returnsResource() {
+    assertThat(
+            KubeApiMetrics.resource(url("/api/v1/namespaces/default/pods/web/log").pathSegments()))
+        .isEqualTo("pods/log");
+    assertThat(KubeApiMetrics.resource(url("/api/v1/namespaces/pool-jupyter").pathSegments()))
+        .isEqualTo("namespaces");
+    assertThat(KubeApiMetrics.resource(url("/api/v1/namespaces").pathSegments()))
+        .isEqualTo("namespaces");
+  }
+}
@@ -16,18 +16,33 @@
 
 package tsunami.security.scanner.utilities;
 
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import freemarker.template.TemplateException;
 import io.kubernetes.client.openapi.ApiException;
 import io.kubernetes.client.openapi.apis.AppsV1Api;
 import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.models.V1Pod;
 import io.kubernetes.client.openapi.models.V1Service;
 import io.kubernetes.client.util.Yaml;
+import java.io.File;
 import java.io.IOException;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
@@ -36,6 +51,7 @@ import org.mockito.junit.MockitoRule;
 public final class KubeJavaClientUtilTest {
 
   @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
 
   @Mock CoreV1Api mockCoreV1Api;
   @Mock AppsV1Api mockAppsV1Api;
@@ -97,4 +113,140 @@ public final class KubeJavaClientUtilTest {
     verify(mockCoreV1Api)
         .createNamespacedPod("default", (V1Pod) Yaml.load(resourceConfig), null, null, null);
   }
+
+  @Test
+  public void createResources_whenNamespaceGiven_createsResourceInNamespace()
+      throws IOException, ApiException {
+    String resourceConfig =
+        "apiVersion: v1\n"
+            + "kind: Service\n"
+            + "metadata:\n"
+            + "  name: jupyter\n"
+            + "spec:\n"
+            + "  ports:\n"
+            + "  - port: 80\n"
+            + "  type: LoadBalancer\n";
+
+    KubeJavaClientUtil kubeJavaClientUtil =
+        new KubeJavaClientUtil(mockCoreV1Api, mockAppsV1Api, "tenant-a");
+    kubeJavaClientUtil.createResources(resourceConfig);
+
+    verify(mockCoreV1Api)
+        .createNamespacedService(
+            "tenant-a", (V1Service) Yaml.load(resourceConfig), null, null, null);
+  }
+
+  @Test
+  public void createResources_whenRenderingMultiDocumentTemplate_createsEachResource()
+      throws IOException, ApiException, TemplateException {
+    String resourceConfigTemplate =
+        "apiVersion: v1\n"
+            + "kind: Service\n"
+            + "metadata:\n"
+            + "  name: ${app}\n"
+            + "---\n"
+            + "apiVersion: v1\n"
+            + "kind: Pod\n"
+            + "metadata:\n"
+            + "  name: ${app}\n";
+    File configFile = folder.newFile("jupyter.yaml");
+    Files.asCharSink(configFile, UTF_8).write(resourceConfigTemplate);
+
+    KubeJavaClientUtil kubeJavaClientUtil = new KubeJavaClientUtil(mockCoreV1Api, mockAppsV1Api);
+    kubeJavaClientUtil.createResources(ImmutableMap.of("app", "jupyter"), configFile, false);
+
+    verify(mockCoreV1Api)
+        .createNamespacedService(
+            eq("default"),
+            argThat(svc -> svc.getMetadata().getName().equals("jupyter")),
+            isNull(),
+            isNull(),
+            isNull());
+    verify(mockCoreV1Api)
+        .createNamespacedPod(
+            eq("default"),
+            argThat(pod -> pod.getMetadata().getName().equals("jupyter")),
+            isNull(),
+            isNull(),
+            isNull());
+  }
+
+  @Test
+  public void createResource_whenLabelsGiven_labelsCopyOfResource() throws ApiException {
+    V1Service service =
+        Yaml.loadAs("apiVersion: v1\nkind: Service\nmetadata:\n  name: jupyter\n", V1Service.class);
+
+    KubeJavaClientUtil kubeJavaClientUtil =
+        new KubeJavaClientUtil(
+            mockCoreV1Api,
+            mockAppsV1Api,
+            "default",
+            ImmutableMap.of(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL, "abc123"));
+    kubeJavaClientUtil.createResource(service);
+
+    verify(mockCoreV1Api)
+        .createNamespacedService(
+            eq("default"),
+            argThat(
+                svc ->
+                    "abc123"
+                        .equals(
+                            svc.getMetadata()
+                                .getLabels()
+                                .get(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL))),
+            isNull(),
+            isNull(),
+            isNull());
+    assertThat(service.getMetadata().getLabels()).isNull();
+  }
+
+  @Test
+  public void applyResource_whenAppliedAgainUnderAnotherDeployment_returnsUnchanged()
+      throws ApiException {
+    V1Service service =
+        Yaml.loadAs("apiVersion: v1\nkind: Service\nmetadata:\n  name: jupyter\n", V1Service.class);
+    ArgumentCaptor<V1Service> created = ArgumentCaptor.forClass(V1Service.class);
+    when(mockCoreV1Api.readNamespacedService(eq("jupyter"), eq("default"), any(), any(), any()))
+        .thenThrow(new ApiException(404, "not found"))
+        .thenAnswer(invocation -> created.getValue());
+
+    KubeJavaClientUtil.ApplyOutcome first =
+        new KubeJavaClientUtil(
+                mockCoreV1Api,
+                mockAppsV1Api,
+                "default",
+                ImmutableMap.of(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL, "abc123"))
+            .applyResource(service);
+    verify(mockCoreV1Api)
+        .createNamespacedService(eq("default"), created.capture(), any(), any(), any());
+    KubeJavaClientUtil.ApplyOutcome second =
+        new KubeJavaClientUtil(
+                mockCoreV1Api,
+                mockAppsV1Api,
+                "default",
+                ImmutableMap.of(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL, "def456"))
+            .applyResource(service);
+
+    assertThat(first).isEqualTo(KubeJavaClientUtil.ApplyOutcome.CREATED);
+    assertThat(second).isEqualTo(KubeJavaClientUtil.ApplyOutcome.UNCHANGED);
+    assertThat(created.getValue().getMetadata().getLabels())
+        .containsEntry(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL, "abc123");
+  }
+
+  @Test
+  public void createResources_whenApiCallFails_throwsApiException() throws Exception {
+    File configFile = folder.newFile("jupyter.yaml");
+    Files.asCharSink(configFile, UTF_8)
+        .write("apiVersion: v1\nkind: Service\nmetadata:\n  name: ${app}\n");
+    when(mockCoreV1Api.createNamespacedService(any(), any(), any(), any(), any()))
+        .thenThrow(new ApiException("conflict"));
+
+    KubeJavaClientUtil kubeJavaClientUtil = new KubeJavaClientUtil(mockCoreV1Api, mockAppsV1Api);
+
+    assertThrows(
+        ApiException.class,
+        () ->
+            kubeJavaClientUtil.createResources(
+                ImmutableMap.of("app", "jupyter"), configFile, false));
+  }
 }
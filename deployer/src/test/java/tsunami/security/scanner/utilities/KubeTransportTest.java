@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.beust.jcommander.JCommander;
+import io.kubernetes.client.openapi.ApiClient;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class KubeTransportTest {
+
+  private static KubeTransportArgs parseArgs(String... args) {
+    KubeTransportArgs transportArgs = new KubeTransportArgs();
+    JCommander.newBuilder().addObject(transportArgs).build().parse(args);
+    return transportArgs;
+  }
+
+  @Test
+  public void create_whenDefaultArgs_configuresHttpClient() {
+    KubeTransport transport = new KubeTransport(new ApiClient(), new ApiClient(), parseArgs());
+
+    OkHttpClient httpClient = transport.getApiClient().getHttpClient();
+    assertThat(httpClient.dispatcher().getMaxRequestsPerHost()).isEqualTo(32);
+    assertThat(httpClient.protocols()).containsExactly(Protocol.HTTP_2, Protocol.HTTP_1_1);
+    assertThat(httpClient.readTimeoutMillis()).isEqualTo(30_000);
+  }
+
+  @Test
+  public void create_whenArgsPassedIn_appliesArgs() {
+    KubeTransport transport =
+        new KubeTransport(
+            new ApiClient(),
+            new ApiClient(),
+            parseArgs(
+                "--kubeMaxRequests",
+                "100",
+                "--kubeMaxRequestsPerHost",
+                "50",
+                "--kubeHttp2",
+                "false",
+                "--kubeConnectTimeoutMillis",
+                "2000",
+                "--kubeReadTimeoutMillis",
+                "5000"));
+
+    OkHttpClient httpClient = transport.getApiClient().getHttpClient();
+    assertThat(httpClient.dispatcher().getMaxRequests()).isEqualTo(100);
+    assertThat(httpClient.dispatcher().getMaxRequestsPerHost()).isEqualTo(50);
+    assertThat(httpClient.protocols()).containsExactly(Protocol.HTTP_1_1);
+    assertThat(httpClient.connectTimeoutMillis()).isEqualTo(2000);
+    assertThat(httpClient.readTimeoutMillis()).isEqualTo(5000);
+  }
+
+  @Test
+  public void create_watchClientSharesPoolWithoutReadTimeout() {
+    KubeTransport transport = new KubeTransport(new ApiClient(), new ApiClient(), parseArgs());
+
+    OkHttpClient httpClient = transport.getApiClient().getHttpClient();
+    OkHttpClient watchHttpClient = transport.getWatchClient().getHttpClient();
+    assertThat(watchHttpClient.readTimeoutMillis()).isEqualTo(0);
+    assertThat(watchHttpClient.connectionPool()).isSameInstanceAs(httpClient.connectionPool());
+    assertThat(watchHttpClient.dispatcher()).isSameInstanceAs(httpClient.dispatcher());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import freemarker.template.TemplateException;
+import io.kubernetes.client.openapi.models.V1Service;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RenderedManifestCacheTest {
+
+  private static final String SERVICE_TEMPLATE =
+      "apiVersion: v1\n" + "kind: Service\n" + "metadata:\n" + "  name: ${app}\n";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void render_whenSameTemplateAndData_returnsCachedResources()
+      throws IOException, TemplateException {
+    File configFile = folder.newFile("service.yaml");
+    Files.asCharSink(configFile, UTF_8).write(SERVICE_TEMPLATE);
+    RenderedManifestCache cache = new RenderedManifestCache(16, Duration.ofHours(1));
+
+    ImmutableList<Object> first =
+        cache.render(ImmutableMap.of("app", "jupyter"), configFile, false);
+    ImmutableList<Object> second =
+        cache.render(ImmutableMap.of("app", "jupyter"), configFile, false);
+
+    assertThat(((V1Service) first.get(0)).getMetadata().getName()).isEqualTo("jupyter");
+    assertThat(second).isSameInstanceAs(first);
+  }
+
+  @Test
+  public void render_whenTemplateDataDiffers_rendersAgain() throws IOException, TemplateException {
+    File configFile = folder.newFile("service.yaml");
+    Files.asCharSink(configFile, UTF_8).write(SERVICE_TEMPLATE);
+    RenderedManifestCache cache = new RenderedManifestCache(16, Duration.ofHours(1));
+
+    cache.render(ImmutableMap.of("app", "jupyter"), configFile, false);
+    ImmutableList<Object> resources =
+        cache.render(ImmutableMap.of("app", "wordpress"), configFile, false);
+
+    assertThat(((V1Service) resources.get(0)).getMetadata().getName()).isEqualTo("wordpress");
+  }
+
+  @Test
+  public void render_whenTemplateContentChanged_rendersAgain()
+      throws IOException, TemplateException {
+    File configFile = folder.newFile("service.yaml");
+    Files.asCharSink(configFile, UTF_8).write(SERVICE_TEMPLATE);
+    RenderedManifestCache cache = new RenderedManifestCache(16, Duration.ofHours(1));
+
+    cache.render(ImmutableMap.of("app", "jupyter"), configFile, false);
+    Files.asCharSink(configFile, UTF_8).write(SERVICE_TEMPLATE.replace("${app}", "${app}-v2"));
+    ImmutableList<Object> resources =
+        cache.render(ImmutableMap.of("app", "jupyter"), configFile, false);
+
+    assertThat(((V1Service) resources.get(0)).getMetadata().getName()).isEqualTo("jupyter-v2");
+  }
+
+  @Test
+  public void render_whenTemplateWatched_rendersResidentContent()
+      throws IOException, TemplateException {
+    File configFile = folder.newFile("service.yaml");
+    Files.asCharSink(configFile, UTF_8).write(SERVICE_TEMPLATE);
+    TemplateWatcher watcher = TemplateWatcher.start(ImmutableList.of(folder.getRoot()));
+    RenderedManifestCache cache = new RenderedManifestCache(16, Duration.ofHours(1), null, watcher);
+
+    // Once the watcher is closed, the file on disk is no longer looked at.
+    watcher.close();
+    Files.asCharSink(configFile, UTF_8).write(SERVICE_TEMPLATE.replace("${app}", "${app}-v2"));
+    ImmutableList<Object> resources =
+        cache.render(ImmutableMap.of("app", "jupyter"), configFile, false);
+
+    assertThat(((V1Service) resources.get(0)).getMetadata().getName()).isEqualTo("jupyter");
+  }
+
+  @Test
+  public void render_whenDiskDirectorySet_survivesNewCache() throws IOException, TemplateException {
+    File configFile = folder.newFile("service.yaml");
+    Files.asCharSink(configFile, UTF_8).write(SERVICE_TEMPLATE);
+    File diskDirectory = folder.newFolder("manifests");
+
+    new RenderedManifestCache(16, Duration.ofHours(1), diskDirectory)
+        .render(ImmutableMap.of("app", "jupyter"), configFile, false);
+    File[] entries = diskDirectory.listFiles();
+    ImmutableList<Object> resources =
+        new RenderedManifestCache(16, Duration.ofHours(1), diskDirectory)
+            .render(ImmutableMap.of("app", "jupyter"), configFile, false);
+
+    assertThat(entries).hasLength(1);
+    assertThat(((V1Service) resources.get(0)).getMetadata().getName()).isEqualTo("jupyter");
+  }
+
+  @Test
+  public void render_whenMoreEntriesThanMaximumSize_keepsMaximumSizeOnDisk()
+      throws IOException, TemplateException {
+    File configFile = folder.newFile("service.yaml");
+    Files.asCharSink(configFile, UTF_8).write(SERVICE_TEMPLATE);
+    File diskDirectory = folder.newFolder("manifests");
+    RenderedManifestCache cache = new RenderedManifestCache(2, Duration.ofHours(1), diskDirectory);
+
+    cache.render(ImmutableMap.of("app", "a"), configFile, false);
+    cache.render(ImmutableMap.of("app", "b"), configFile, false);
+    cache.render(ImmutableMap.of("app", "c"), configFile, false);
+
+    assertThat(diskDirectory.listFiles()).hasLength(2);
+  }
+
+  @Test
+  public void hash_whenValueNullOrStringNull_differs() {
+    String contentHash = AppBundle.contentHash(SERVICE_TEMPLATE.getBytes(UTF_8));
+
+    assertThat(RenderedManifestCache.hash(Collections.singletonMap("app", null), contentHash))
+        .isNotEqualTo(RenderedManifestCache.hash(ImmutableMap.of("app", "null"), contentHash));
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import io.kubernetes.client.custom.V1Patch;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.ApiResponse;
+import io.kubernetes.client.openapi.models.V1Service;
+import io.kubernetes.client.util.Yaml;
+import java.util.ArrayList;
+import java.util.List;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public final class ResourceApplierTest {
+
+  private static final String SERVICE_CONFIG =
+      "apiVersion: v1\n"
+          + "kind: Service\n"
+          + "metadata:\n"
+          + "  name: jupyter\n"
+          + "spec:\n"
+          + "  ports:\n"
+          + "  - port: 80\n"
+          + "  type: LoadBalancer\n";
+
+  @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock ApiClient mockApiClient;
+
+  private final List<V1Service> createdServices = new ArrayList<>();
+  private final List<V1Patch> patches = new ArrayList<>();
+
+  private ResourceApplier<V1Service> newApplier(V1Service liveService) {
+    return new ResourceApplier<>(
+        V1Service.class,
+        V1Service::getMetadata,
+        name -> {
+          if (liveService == null) {
+            throw new ApiException(404, "not found");
+          }
+          return liveService;
+        },
+        createdServices::add,
+        (name, patch) -> {
+          patches.add(patch);
+          OkHttpClient httpClient = new OkHttpClient();
+          return httpClient.newCall(
+              new Request.Builder()
+                  .url("http://localhost/api/v1/namespaces/default/services/" + name)
+                  .patch(RequestBody.create(null, patch.getValue()))
+                  .build());
+        },
+        mockApiClient);
+  }
+
+  @Test
+  public void apply_whenResourceMissing_createsAnnotatedCopy() throws ApiException {
+    V1Service service = Yaml.loadAs(SERVICE_CONFIG, V1Service.class);
+
+    KubeJavaClientUtil.ApplyOutcome outcome = newApplier(null).apply(service);
+
+    assertThat(outcome).isEqualTo(KubeJavaClientUtil.ApplyOutcome.CREATED);
+    assertThat(createdServices).hasSize(1);
+    assertThat(createdServices.get(0).getMetadata().getAnnotations())
+        .containsEntry(
+            ResourceApplier.FINGERPRINT_ANNOTATION, ResourceApplier.fingerprint(service));
+    assertThat(service.getMetadata().getAnnotations()).isNull();
+  }
+
+  @Test
+  public void apply_whenLiveResourceHasSameFingerprint_skipsIt() throws ApiException {
+    V1Service service = Yaml.loadAs(SERVICE_CONFIG, V1Service.class);
+    V1Service liveService = Yaml.loadAs(SERVICE_CONFIG, V1Service.class);
+    liveService
+        .getMetadata()
+        .putAnnotationsItem(
+            ResourceApplier.FINGERPRINT_ANNOTATION, ResourceApplier.fingerprint(service));
+
+    KubeJavaClientUtil.ApplyOutcome outcome = newApplier(liveService).apply(service);
+
+    assertThat(outcome).isEqualTo(KubeJavaClientUtil.ApplyOutcome.UNCHANGED);
+    assertThat(createdServices).isEmpty();
+    assertThat(patches).isEmpty();
+  }
+
+  @Test
+  public void apply_whenLiveResourceChanged_patchesIt() throws ApiException {
+    V1Service service = Yaml.loadAs(SERVICE_CONFIG, V1Service.class);
+    V1Service liveService = Yaml.loadAs(SERVICE_CONFIG.replace("80", "8080"), V1Service.class);
+    when(mockApiClient.getHttpClient()).thenReturn(new OkHttpClient());
+    doReturn(new ApiResponse<>(200, ImmutableMap.of(), service))
+        .when(mockApiClient)
+        .execute(any(), any());
+
+    KubeJavaClientUtil.ApplyOutcome outcome = newApplier(liveService).apply(service);
+
+    assertThat(outcome).isEqualTo(KubeJavaClientUtil.ApplyOutcome.PATCHED);
+    assertThat(createdServices).isEmpty();
+    // PatchUtils builds the call twice to rewrite its content type.
+    assertThat(patches).isNotEmpty();
+    assertThat(patches.get(0).getValue()).contains(ResourceApplier.fingerprint(service));
+  }
+
+  @Test
+  public void apply_whenReadFails_throws() {
+    V1Service service = Yaml.loadAs(SERVICE_CONFIG, V1Service.class);
+    ResourceApplier<V1Service> applier =
+        new ResourceApplier<>(
+            V1Service.class,
+            V1Service::getMetadata,
+            name -> {
+              throw new ApiException(403, "forbidden");
+            },
+            createdServices::add,
+            (name, patch) -> null,
+            mockApiClient);
+
+    assertThrows(ApiException.class, () -> applier.apply(service));
+    assertThat(createdServices).isEmpty();
+  }
+}
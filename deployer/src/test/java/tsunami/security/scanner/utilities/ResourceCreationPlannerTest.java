@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1PersistentVolumeClaim;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1Service;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public final class ResourceCreationPlannerTest {
+
+  private static final String DEPLOYMENT_CONFIG =
+      "apiVersion: apps/v1\n" + "kind: Deployment\n" + "metadata:\n" + "  name: ${app}\n";
+  private static final String SERVICE_CONFIG =
+      "apiVersion: v1\n" + "kind: Service\n" + "metadata:\n" + "  name: ${app}\n";
+  private static final String PVC_CONFIG =
+      "apiVersion: v1\n"
+          + "kind: PersistentVolumeClaim\n"
+          + "metadata:\n"
+          + "  name: ${app}-pv-claim\n";
+
+  @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Mock CoreV1Api mockCoreV1Api;
+  @Mock AppsV1Api mockAppsV1Api;
+
+  private File writeConfig(String name, String content) throws IOException {
+    File configFile = folder.newFile(name);
+    Files.asCharSink(configFile, UTF_8).write(content);
+    return configFile;
+  }
+
+  @Test
+  public void createResources_whenWorkloadListedFirst_createsDependenciesFirst() throws Exception {
+    File deploymentFile = writeConfig("deployment.yaml", DEPLOYMENT_CONFIG);
+    File serviceFile = writeConfig("service.yaml", SERVICE_CONFIG + "---\n" + PVC_CONFIG);
+    ResourceCreationPlanner planner =
+        new ResourceCreationPlanner(new KubeJavaClientUtil(mockCoreV1Api, mockAppsV1Api), 4);
+
+    planner.createResources(
+        ImmutableMap.of("app", "wordpress"), ImmutableList.of(deploymentFile, serviceFile), false);
+
+    InOrder inOrder = inOrder(mockCoreV1Api, mockAppsV1Api);
+    inOrder
+        .verify(mockCoreV1Api)
+        .createNamespacedService(eq("default"), any(), any(), any(), any());
+    inOrder
+        .verify(mockAppsV1Api)
+        .createNamespacedDeployment(eq("default"), any(), any(), any(), any());
+    verify(mockCoreV1Api)
+        .createNamespacedPersistentVolumeClaim(eq("default"), any(), any(), any(), any());
+  }
+
+  @Test
+  public void createResources_whenApiCallFails_throwsApiException() throws Exception {
+    File serviceFile = writeConfig("service.yaml", SERVICE_CONFIG);
+    when(mockCoreV1Api.createNamespacedService(any(), any(), any(), any(), any()))
+        .thenThrow(new ApiException("conflict"));
+    ResourceCreationPlanner planner =
+        new ResourceCreationPlanner(new KubeJavaClientUtil(mockCoreV1Api, mockAppsV1Api), 2);
+
+    assertThrows(
+        ApiException.class,
+        () ->
+            planner.createResources(
+                ImmutableMap.of("app", "jupyter"), ImmutableList.of(serviceFile), false));
+  }
+
+  @Test
+  public void planStages_groupsByKindKeepingOrder() {
+    V1Pod pod = new V1Pod().metadata(new V1ObjectMeta().name("pod"));
+    V1Service service = new V1Service().metadata(new V1ObjectMeta().name("service"));
+    V1Deployment deployment = new V1Deployment().metadata(new V1ObjectMeta().name("deployment"));
+    V1PersistentVolumeClaim pvc =
+        new V1PersistentVolumeClaim().metadata(new V1ObjectMeta().name("pvc"));
+
+    ImmutableList<ImmutableList<Object>> stages =
+        ResourceCreationPlanner.planStages(
+            ImmutableList.of(ImmutableList.of(pod, service), ImmutableList.of(deployment, pvc)));
+
+    assertThat(stages)
+        .containsExactly(ImmutableList.of(service, pvc), ImmutableList.of(pod, deployment))
+        .inOrder();
+  }
+
+  @Test
+  public void newPlanner_whenParallelismNotPositive_throws() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new ResourceCreationPlanner(new KubeJavaClientUtil(mockCoreV1Api, mockAppsV1Api), 0));
+  }
+}
@@ -20,6 +20,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 
 import com.google.gson.JsonSyntaxException;
+import com.google.common.collect.ImmutableMap;
 import java.util.HashMap;
 import java.util.Map;
 import org.junit.Test;
@@ -71,4 +72,45 @@ public final class TemplateDataUtilTest {
     assertThrows(
         JsonSyntaxException.class, () -> TemplateDataUtil.parseTemplateDataJson(templateDataJson));
   }
+
+  @Test
+  public void parseTemplateData_whenValuesNested_keysThemByPath() {
+    String templateDataJson = "{'mysql':{'version':'5.6','port':3306},'debug':true}";
+
+    Map<String, String> resultMap = TemplateDataUtil.parseTemplateDataJson(templateDataJson);
+
+    assertThat(resultMap)
+        .containsExactly("mysql.version", "5.6", "mysql.port", "3306", "debug", "true");
+  }
+
+  @Test
+  public void parseTemplateData_whenStringBlank_returnsNull() {
+    assertThat(TemplateDataUtil.parseTemplateDataJson(" ")).isNull();
+  }
+
+  @Test
+  public void parseTemplateData_whenContentAfterObject_failed() {
+    String templateDataJson = "{'mysql_version':'5.6'} {}";
+
+    assertThrows(
+        JsonSyntaxException.class, () -> TemplateDataUtil.parseTemplateDataJson(templateDataJson));
+  }
+
+  @Test
+  public void toTemplateModel_whenKeysDotted_addsNestedHashes() {
+    Map<String, ?> model =
+        TemplateDataUtil.toTemplateModel(
+            ImmutableMap.of("mysql.version", "5.6", "mysql.port", "3306", "password", "secret"));
+
+    assertThat(model).containsEntry("password", "secret");
+    assertThat(model).containsEntry("mysql", ImmutableMap.of("version", "5.6", "port", "3306"));
+  }
+
+  @Test
+  public void toTemplateModel_whenRootIsAKey_keepsItsValue() {
+    Map<String, ?> model =
+        TemplateDataUtil.toTemplateModel(ImmutableMap.of("mysql", "5.6", "mysql.port", "3306"));
+
+    assertThat(model).containsExactly("mysql", "5.6", "mysql.port", "3306");
+  }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.io.MoreFiles;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.BooleanSupplier;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TemplateWatcherTest {
+
+  private static final String JOB_TEMPLATE = "metadata:\n" + "  name: ${app}\n";
+  private static final long WAIT_MILLIS = 10_000;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Waits until the condition holds, as changes are picked up asynchronously. */
+  private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(20);
+    }
+    return true;
+  }
+
+  @Test
+  public void get_whenFileUnderDirectory_returnsResidentEntry() throws IOException {
+    File configFile = folder.newFile("deployer-job.yaml");
+    Files.asCharSink(configFile, UTF_8).write(JOB_TEMPLATE);
+
+    try (TemplateWatcher watcher = TemplateWatcher.start(ImmutableList.of(folder.getRoot()))) {
+      AppBundle.Entry entry = watcher.get(configFile).get();
+
+      assertThat(entry.getContent()).isEqualTo(JOB_TEMPLATE);
+      assertThat(entry.getVariables()).containsExactly("app");
+    }
+  }
+
+  @Test
+  public void get_whenFileOutsideDirectories_returnsEmpty() throws IOException {
+    File watched = folder.newFolder("watched");
+    File configFile = folder.newFile("deployer-job.yaml");
+
+    try (TemplateWatcher watcher = TemplateWatcher.start(ImmutableList.of(watched))) {
+      assertThat(watcher.get(configFile).isPresent()).isFalse();
+    }
+  }
+
+  @Test
+  public void get_whenFileModified_returnsNewContent() throws Exception {
+    File configFile = folder.newFile("deployer-job.yaml");
+    Files.asCharSink(configFile, UTF_8).write(JOB_TEMPLATE);
+
+    try (TemplateWatcher watcher = TemplateWatcher.start(ImmutableList.of(folder.getRoot()))) {
+      String modified = JOB_TEMPLATE.replace("${app}", "${app}-v2");
+      Files.asCharSink(configFile, UTF_8).write(modified);
+
+      assertThat(eventually(() -> watcher.get(configFile).get().getContent().equals(modified)))
+          .isTrue();
+    }
+  }
+
+  @Test
+  public void get_whenFileCreatedInNewDirectory_returnsIt() throws Exception {
+    try (TemplateWatcher watcher = TemplateWatcher.start(ImmutableList.of(folder.getRoot()))) {
+      File directory = folder.newFolder("jobs");
+      File configFile = new File(directory, "deployer-job.yaml");
+      Files.asCharSink(configFile, UTF_8).write(JOB_TEMPLATE);
+
+      assertThat(eventually(() -> watcher.get(configFile).isPresent())).isTrue();
+      assertThat(eventually(() -> watcher.get(configFile).get().getContent().equals(JOB_TEMPLATE)))
+          .isTrue();
+    }
+  }
+
+  @Test
+  public void get_whenFileDeleted_returnsEmpty() throws Exception {
+    File configFile = folder.newFile("deployer-job.yaml");
+    Files.asCharSink(configFile, UTF_8).write(JOB_TEMPLATE);
+
+    try (TemplateWatcher watcher = TemplateWatcher.start(ImmutableList.of(folder.getRoot()))) {
+      configFile.delete();
+
+      assertThat(eventually(() -> !watcher.get(configFile).isPresent())).isTrue();
+    }
+  }
+
+  @Test
+  public void get_whenSymlinkedDirectorySwapped_returnsNewContent() throws Exception {
+    // Lays out files the way Kubernetes mounts a ConfigMap.
+    Path root = folder.getRoot().toPath();
+    Path oldData = folder.newFolder("..2020_01_01_v1").toPath();
+    Path newData = folder.newFolder("..2020_01_02_v2").toPath();
+    Files.asCharSink(oldData.resolve("deployer-job.yaml").toFile(), UTF_8).write(JOB_TEMPLATE);
+    String modified = JOB_TEMPLATE.replace("${app}", "${app}-v2");
+    Files.asCharSink(newData.resolve("deployer-job.yaml").toFile(), UTF_8).write(modified);
+    java.nio.file.Files.createSymbolicLink(root.resolve("..data"), oldData.getFileName());
+    java.nio.file.Files.createSymbolicLink(
+        root.resolve("deployer-job.yaml"), Paths.get("..data", "deployer-job.yaml"));
+    File configFile = root.resolve("deployer-job.yaml").toFile();
+
+    try (TemplateWatcher watcher = TemplateWatcher.start(ImmutableList.of(folder.getRoot()))) {
+      assertThat(watcher.get(configFile).get().getContent()).isEqualTo(JOB_TEMPLATE);
+
+      // Kubernetes updates the ConfigMap by atomically replacing the ..data link.
+      Path newLink = root.resolve("..data_tmp");
+      java.nio.file.Files.createSymbolicLink(newLink, newData.getFileName());
+      java.nio.file.Files.move(newLink, root.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+      MoreFiles.deleteRecursively(oldData);
+
+      assertThat(eventually(() -> watcher.get(configFile).get().getContent().equals(modified)))
+          .isTrue();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.models.V1PersistentVolumeClaim;
+import io.kubernetes.client.openapi.models.V1Service;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class YamlDocumentWriterTest {
+
+  private static final String SERVICE_CONFIG =
+      "apiVersion: v1\n"
+          + "kind: Service\n"
+          + "metadata:\n"
+          + "  name: jupyter\n"
+          + "spec:\n"
+          + "  ports:\n"
+          + "  - port: 80\n";
+  private static final String PVC_CONFIG =
+      "apiVersion: v1\n"
+          + "kind: PersistentVolumeClaim\n"
+          + "metadata:\n"
+          + "  name: mysql-pv-claim\n";
+
+  @Test
+  public void write_whenMultipleDocuments_emitsEachDocumentOnSeparator() throws IOException {
+    List<Object> resources = new ArrayList<>();
+    YamlDocumentWriter writer = new YamlDocumentWriter(resources::add, false);
+
+    writer.write(SERVICE_CONFIG + "---\n");
+    assertThat(resources).hasSize(1);
+    writer.write(PVC_CONFIG);
+    writer.close();
+
+    assertThat(resources).hasSize(2);
+    assertThat(resources.get(0)).isInstanceOf(V1Service.class);
+    assertThat(((V1Service) resources.get(0)).getMetadata().getName()).isEqualTo("jupyter");
+    assertThat(resources.get(1)).isInstanceOf(V1PersistentVolumeClaim.class);
+  }
+
+  @Test
+  public void write_whenDocumentsAreEmptyOrComments_skipsThem() throws IOException {
+    List<Object> resources = new ArrayList<>();
+
+    try (YamlDocumentWriter writer = new YamlDocumentWriter(resources::add, false)) {
+      writer.write("---\n# leading comment\n---\n" + SERVICE_CONFIG + "---\n\n");
+    }
+
+    assertThat(resources).hasSize(1);
+    assertThat(resources.get(0)).isInstanceOf(V1Service.class);
+  }
+
+  @Test
+  public void close_whenLastLineIsUnterminatedSeparator_dropsIt() throws IOException {
+    List<Object> resources = new ArrayList<>();
+
+    try (YamlDocumentWriter writer = new YamlDocumentWriter(resources::add, false)) {
+      writer.write(SERVICE_CONFIG + "---");
+    }
+
+    assertThat(resources).hasSize(1);
+    assertThat(resources.get(0)).isInstanceOf(V1Service.class);
+  }
+
+  @Test
+  public void write_whenWrittenOneCharAtATime_emitsSameDocuments() throws IOException {
+    List<Object> resources = new ArrayList<>();
+    String config = SERVICE_CONFIG + "---\n" + PVC_CONFIG;
+
+    try (YamlDocumentWriter writer = new YamlDocumentWriter(resources::add, false)) {
+      for (char c : config.toCharArray()) {
+        writer.write(c);
+      }
+    }
+
+    assertThat(resources).hasSize(2);
+  }
+
+  @Test
+  public void write_whenHandlerThrows_wrapsApiException() {
+    ApiException apiException = new ApiException("conflict");
+    YamlDocumentWriter writer =
+        new YamlDocumentWriter(
+            resource -> {
+              throw apiException;
+            },
+            false);
+
+    YamlDocumentWriter.HandlerException e =
+        assertThrows(
+            YamlDocumentWriter.HandlerException.class,
+            () -> writer.write(SERVICE_CONFIG + "---\n"));
+
+    assertThat(e.getCause()).isSameInstanceAs(apiException);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import io.kubernetes.client.openapi.ApiCallback;
+import io.kubernetes.client.openapi.ApiException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adapts the callback of a Kubernetes {@code *Async} call to a {@link
+ * com.google.common.util.concurrent.ListenableFuture}.
+ *
+ * <p>Usage: {@code ApiCallbackFuture<V1Job> f = new ApiCallbackFuture<>();
+ * batchV1Api.createNamespacedJobAsync(namespace, job, null, null, null, f);}
+ */
+final class ApiCallbackFuture<T> extends AbstractFuture<T> implements ApiCallback<T> {
+
+  @Override
+  public void onFailure(ApiException e, int statusCode, Map<String, List<String>> responseHeaders) {
+    setException(e);
+  }
+
+  @Override
+  public void onSuccess(T result, int statusCode, Map<String, List<String>> responseHeaders) {
+    set(result);
+  }
+
+  @Override
+  public void onUploadProgress(long bytesWritten, long contentLength, boolean done) {}
+
+  @Override
+  public void onDownloadProgress(long bytesRead, long contentLength, boolean done) {}
+}
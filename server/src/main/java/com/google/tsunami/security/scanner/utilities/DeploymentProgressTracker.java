@@ -0,0 +1,276 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.tsunami.security.scanner.utilities;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.protobuf.Timestamp;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentStatus;
+import io.kubernetes.client.openapi.models.V1Job;
+import io.kubernetes.client.openapi.models.V1JobCondition;
+import io.kubernetes.client.openapi.models.V1PersistentVolumeClaim;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodCondition;
+import io.kubernetes.client.openapi.models.V1Service;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Turns the objects of one deployment, as delivered by {@link DeploymentWatch}, into the ordered
+ * and de-duplicated progress messages of a CreateDeploymentWithProgress call. The future completes
+ * after COMPLETED or FAILED has been sent. Messages and completion are serialized on the tracker,
+ * so no message follows the completion.
+ *
+ * <p>The deployer Job completes right after its last create call, while the watches of the created
+ * objects may deliver them a little later. COMPLETED is therefore only sent once the Job succeeded
+ * and every workload and LoadBalancer endpoint seen is ready, and nothing new was seen for
+ * settleMillis after that. A deleted workload or Service no longer counts, so one replaced by a
+ * new object of another name does not hold COMPLETED back.
+ */
+final class DeploymentProgressTracker extends AbstractFuture<Void> implements Consumer<Object> {
+
+  // Set by Kubernetes on the pods of a Job, which tells the deployer pod from application pods.
+  private static final String JOB_NAME_LABEL = "job-name";
+
+  private final DeploymentProgress base;
+  private final Consumer<DeploymentProgress> sink;
+  private final ScheduledExecutorService settleExecutor;
+  private final long settleMillis;
+  // Keys of the messages sent, so updates repeating a state send nothing.
+  private final Set<String> sent = new HashSet<>();
+  // Readiness of the workloads and LoadBalancer Services seen, by kind and name.
+  private final Map<String, Boolean> readiness = new HashMap<>();
+  private boolean jobSucceeded;
+  private ScheduledFuture<?> pendingCompletion;
+
+  DeploymentProgressTracker(
+      CreateDeploymentResponse response,
+      Consumer<DeploymentProgress> sink,
+      ScheduledExecutorService settleExecutor,
+      long settleMillis) {
+    this.base =
+        DeploymentProgress.newBuilder()
+            .setJobId(response.getJobId())
+            .setNamespace(response.getNamespace())
+            .setDeploymentId(response.getDeploymentId())
+            .build();
+    this.sink = sink;
+    this.settleExecutor = settleExecutor;
+    this.settleMillis = settleMillis;
+  }
+
+  /** Sends JOB_CREATED; called once before the tracker is subscribed. */
+  synchronized void start() {
+    send(DeploymentProgress.Type.JOB_CREATED, "", "");
+  }
+
+  @Override
+  public synchronized void accept(Object object) {
+    if (isDone()) {
+      return;
+    }
+    if (object instanceof DeploymentWatch.Deleted) {
+      onDelete(((DeploymentWatch.Deleted) object).getObject());
+    } else if (object instanceof V1Job) {
+      onJob((V1Job) object);
+    } else if (object instanceof V1Pod) {
+      onPod((V1Pod) object);
+    } else if (object instanceof V1Deployment) {
+      onDeployment((V1Deployment) object);
+    } else if (object instanceof V1PersistentVolumeClaim) {
+      V1PersistentVolumeClaim claim = (V1PersistentVolumeClaim) object;
+      send(
+          DeploymentProgress.Type.RESOURCE_CREATED,
+          "PersistentVolumeClaim",
+          claim.getMetadata().getName());
+    } else if (object instanceof V1Service) {
+      onService((V1Service) object);
+    }
+    scheduleCompletionIfReady();
+  }
+
+  private void onJob(V1Job job) {
+    if (!base.getJobId().equals(job.getMetadata().getUid())
+        || job.getStatus() == null
+        || job.getStatus().getConditions() == null) {
+      return;
+    }
+    for (V1JobCondition condition : job.getStatus().getConditions()) {
+      if (!"True".equals(condition.getStatus())) {
+        continue;
+      }
+      if ("Complete".equals(condition.getType())) {
+        jobSucceeded = true;
+      } else if ("Failed".equals(condition.getType())) {
+        send(
+            progress(DeploymentProgress.Type.FAILED, "Job", job.getMetadata().getName())
+                .setMessage(
+                    "Deployer job failed: "
+                        + condition.getReason()
+                        + " "
+                        + condition.getMessage()));
+        set(null);
+      }
+    }
+  }
+
+  private void onPod(V1Pod pod) {
+    String name = pod.getMetadata().getName();
+    Map<String, String> labels = pod.getMetadata().getLabels();
+    if (labels != null && labels.containsKey(JOB_NAME_LABEL)) {
+      if (hasTrueCondition(pod, "PodScheduled")) {
+        send(DeploymentProgress.Type.DEPLOYER_POD_SCHEDULED, "Pod", name);
+      }
+      if (pod.getStatus() != null && "Running".equals(pod.getStatus().getPhase())) {
+        send(DeploymentProgress.Type.DEPLOYER_POD_SCHEDULED, "Pod", name);
+        send(DeploymentProgress.Type.DEPLOYER_POD_RUNNING, "Pod", name);
+      }
+      return;
+    }
+    send(DeploymentProgress.Type.RESOURCE_CREATED, "Pod", name);
+    track("Pod", name, hasTrueCondition(pod, "Ready"));
+  }
+
+  private void onDeployment(V1Deployment deployment) {
+    String name = deployment.getMetadata().getName();
+    send(DeploymentProgress.Type.RESOURCE_CREATED, "Deployment", name);
+    track("Deployment", name, isReady(deployment));
+  }
+
+  private void onService(V1Service service) {
+    String name = service.getMetadata().getName();
+    send(DeploymentProgress.Type.RESOURCE_CREATED, "Service", name);
+    if (service.getSpec() == null || !"LoadBalancer".equals(service.getSpec().getType())) {
+      return;
+    }
+    ServiceEndpoint endpoint = TsunamiTestbedUtil.endpointOf(service);
+    boolean assigned = !endpoint.getIp().isEmpty() && !endpoint.getPort().isEmpty();
+    readiness.put("Service/" + name, assigned);
+    if (assigned) {
+      send(
+          progress(DeploymentProgress.Type.ENDPOINT_ASSIGNED, "Service", name)
+              .setServiceEndpoint(endpoint));
+    }
+  }
+
+  private void onDelete(Object object) {
+    if (object instanceof V1Pod) {
+      readiness.remove("Pod/" + ((V1Pod) object).getMetadata().getName());
+    } else if (object instanceof V1Deployment) {
+      readiness.remove("Deployment/" + ((V1Deployment) object).getMetadata().getName());
+    } else if (object instanceof V1Service) {
+      readiness.remove("Service/" + ((V1Service) object).getMetadata().getName());
+    }
+  }
+
+  private void track(String kind, String name, boolean ready) {
+    readiness.put(kind + "/" + name, ready);
+    if (ready) {
+      send(DeploymentProgress.Type.WORKLOAD_READY, kind, name);
+    }
+  }
+
+  private static boolean isReady(V1Deployment deployment) {
+    V1DeploymentStatus status = deployment.getStatus();
+    if (status == null) {
+      return false;
+    }
+    int replicas =
+        deployment.getSpec().getReplicas() == null ? 1 : deployment.getSpec().getReplicas();
+    int readyReplicas = status.getReadyReplicas() == null ? 0 : status.getReadyReplicas();
+    long generation =
+        deployment.getMetadata().getGeneration() == null
+            ? 0
+            : deployment.getMetadata().getGeneration();
+    long observedGeneration =
+        status.getObservedGeneration() == null ? 0 : status.getObservedGeneration();
+    return observedGeneration >= generation && readyReplicas >= replicas;
+  }
+
+  private static boolean hasTrueCondition(V1Pod pod, String type) {
+    if (pod.getStatus() == null || pod.getStatus().getConditions() == null) {
+      return false;
+    }
+    List<V1PodCondition> conditions = pod.getStatus().getConditions();
+    return conditions.stream()
+        .anyMatch(
+            condition -> type.equals(condition.getType()) && "True".equals(condition.getStatus()));
+  }
+
+  /** Restarts the settle delay if everything is ready, and cancels it otherwise. */
+  private void scheduleCompletionIfReady() {
+    if (pendingCompletion != null) {
+      pendingCompletion.cancel(false);
+      pendingCompletion = null;
+    }
+    if (!isDone() && isReady()) {
+      pendingCompletion =
+          settleExecutor.schedule(this::completeIfReady, settleMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private synchronized void completeIfReady() {
+    if (!isDone() && isReady()) {
+      send(DeploymentProgress.Type.COMPLETED, "", "");
+      set(null);
+    }
+  }
+
+  private boolean isReady() {
+    return jobSucceeded && !readiness.containsValue(false);
+  }
+
+  private DeploymentProgress.Builder progress(
+      DeploymentProgress.Type type, String kind, String name) {
+    return base.toBuilder().setType(type).setKind(kind).setName(name);
+  }
+
+  private void send(DeploymentProgress.Type type, String kind, String name) {
+    send(progress(type, kind, name));
+  }
+
+  /** Sends the message unless one of the same type about the same object was sent before. */
+  private void send(DeploymentProgress.Builder progress) {
+    if (sent.add(progress.getType() + "/" + progress.getKind() + "/" + progress.getName())) {
+      sink.accept(progress.setTime(now()).build());
+    }
+  }
+
+  private static Timestamp now() {
+    Instant now = Instant.now();
+    return Timestamp.newBuilder().setSeconds(now.getEpochSecond()).setNanos(now.getNano()).build();
+  }
+
+  /** Ends the stream with the failure, unless it already ended. */
+  synchronized void fail(Throwable failure) {
+    setException(failure);
+  }
+
+  @Override
+  protected synchronized void afterDone() {
+    if (pendingCompletion != null) {
+      pendingCompletion.cancel(false);
+    }
+  }
+}
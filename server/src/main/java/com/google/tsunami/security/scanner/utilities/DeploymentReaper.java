@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonSyntaxException;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.BatchV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1Service;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import tsunami.security.scanner.utilities.KubeJavaClientUtil;
+
+/**
+ * Deletes deployments by the deployment id label carried by their deployer Job and every resource
+ * the deployer created, and periodically reaps deployments whose expiry label has passed.
+ *
+ * <p>Deletion uses one label-selector deletecollection call per kind for a whole batch of
+ * deployments, instead of a call per object. Services do not support deletecollection, so they are
+ * listed by the same selector and deleted one by one.
+ */
+final class DeploymentReaper {
+
+  // Keeps label selectors well below request line limits.
+  private static final int MAX_DEPLOYMENTS_PER_SELECTOR = 50;
+  private static final String PROPAGATION_POLICY = "Background";
+
+  private final ImmutableList<NamespaceShard> shards;
+  private final CoreV1Api coreV1Api;
+  private final AppsV1Api appsV1Api;
+  private final BatchV1Api batchV1Api;
+  private final long intervalSeconds;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("deployment-reaper-%d").setDaemon(true).build());
+
+  DeploymentReaper(
+      ImmutableList<NamespaceShard> shards,
+      CoreV1Api coreV1Api,
+      AppsV1Api appsV1Api,
+      BatchV1Api batchV1Api,
+      long intervalSeconds) {
+    this.shards = shards;
+    this.coreV1Api = coreV1Api;
+    this.appsV1Api = appsV1Api;
+    this.batchV1Api = batchV1Api;
+    this.intervalSeconds = intervalSeconds;
+  }
+
+  void start() {
+    executor.scheduleWithFixedDelay(this::reap, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  void stop() {
+    executor.shutdownNow();
+  }
+
+  /** Deletes the expired deployments of every namespace, found in the Job caches. */
+  private void reap() {
+    long now = Instant.now().getEpochSecond();
+    for (NamespaceShard shard : shards) {
+      ImmutableSet<String> expired = shard.getJobStatusCache().listExpiredDeploymentIds(now);
+      if (expired.isEmpty()) {
+        continue;
+      }
+      System.out.println(
+          "Reaping "
+              + expired.size()
+              + " expired deployments in namespace "
+              + shard.getNamespace());
+      try {
+        deleteDeployments(shard.getNamespace(), expired);
+      } catch (ApiException e) {
+        // Deployments that are left over are picked up again by the next run.
+        System.out.println("Failed to reap deployments: " + e.getResponseBody());
+      } catch (RuntimeException e) {
+        // An exception would cancel the scheduled runs, so only log it.
+        System.out.println("Failed to reap deployments: " + e);
+      }
+    }
+  }
+
+  /** Deletes the deployer Jobs and all resources of the deployments in the namespace. */
+  void deleteDeployments(String namespace, Collection<String> deploymentIds) throws ApiException {
+    for (List<String> batch : Iterables.partition(deploymentIds, MAX_DEPLOYMENTS_PER_SELECTOR)) {
+      String labelSelector =
+          KubeJavaClientUtil.DEPLOYMENT_ID_LABEL + " in (" + String.join(",", batch) + ")";
+      delete(
+          () ->
+              batchV1Api.deleteCollectionNamespacedJob(
+                  namespace,
+                  null,
+                  null,
+                  null,
+                  null,
+                  null,
+                  null,
+                  labelSelector,
+                  null,
+                  null,
+                  PROPAGATION_POLICY,
+                  null,
+                  null,
+                  null,
+                  null));
+      delete(
+          () ->
+              appsV1Api.deleteCollectionNamespacedDeployment(
+                  namespace,
+                  null,
+                  null,
+                  null,
+                  null,
+                  null,
+                  null,
+                  labelSelector,
+                  null,
+                  null,
+                  PROPAGATION_POLICY,
+                  null,
+                  null,
+                  null,
+                  null));
+      delete(
+          () ->
+              coreV1Api.deleteCollectionNamespacedPod(
+                  namespace,
+                  null,
+                  null,
+                  null,
+                  null,
+                  null,
+                  null,
+                  labelSelector,
+                  null,
+                  null,
+                  PROPAGATION_POLICY,
+                  null,
+                  null,
+                  null,
+                  null));
+      delete(
+          () ->
+              coreV1Api.deleteCollectionNamespacedPersistentVolumeClaim(
+                  namespace,
+                  null,
+                  null,
+                  null,
+                  null,
+                  null,
+                  null,
+                  labelSelector,
+                  null,
+                  null,
+                  PROPAGATION_POLICY,
+                  null,
+                  null,
+                  null,
+                  null));
+      for (V1Service service :
+          coreV1Api
+              .listNamespacedService(
+                  namespace, null, null, null, null, labelSelector, null, null, null, null)
+              .getItems()) {
+        delete(
+            () ->
+                coreV1Api.deleteNamespacedService(
+                    service.getMetadata().getName(),
+                    namespace,
+                    null,
+                    null,
+                    null,
+                    null,
+                    PROPAGATION_POLICY,
+                    null));
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface DeleteCall {
+    Object call() throws ApiException;
+  }
+
+  private static void delete(DeleteCall deleteCall) throws ApiException {
+    try {
+      deleteCall.call();
+    } catch (JsonSyntaxException e) {
+      // The API server may answer a delete with the deleted object rather than a Status, which
+      // the generated client cannot parse. The deletion has been accepted at this point.
+    }
+  }
+}
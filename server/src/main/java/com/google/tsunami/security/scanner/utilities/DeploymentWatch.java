@@ -0,0 +1,236 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.tsunami.security.scanner.utilities;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentList;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1PersistentVolumeClaim;
+import io.kubernetes.client.openapi.models.V1PersistentVolumeClaimList;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import tsunami.security.scanner.utilities.KubeJavaClientUtil;
+
+/**
+ * Follows the objects of every deployment in a namespace: the deployer Job and its Pod, and the
+ * Pods, Deployments, PersistentVolumeClaims and Services the deployer created.
+ *
+ * <p>Objects are matched by the deployment id label, which the server puts on the deployer Job and
+ * its Pod and the deployer puts on everything it creates. Pods, Deployments and claims are watched
+ * with that label as selector, so objects not created by the testbed are never transferred; Jobs
+ * and Services come from the namespace's existing caches. Subscribers of a deployment are called
+ * with each added or updated object of it, and with a {@link Deleted} holding each deleted one.
+ */
+final class DeploymentWatch {
+
+  private static final String DEPLOYMENT_ID_INDEX = "deployment-id";
+  private static final long SYNC_POLL_INTERVAL_MILLIS = 100;
+
+  private final ServiceCache serviceCache;
+  private final JobStatusCache jobStatusCache;
+  private final ImmutableList<SharedIndexInformer<?>> informers;
+  private final ConcurrentMap<String, Set<Consumer<Object>>> subscribersById =
+      new ConcurrentHashMap<>();
+
+  /** The last known state of a deleted object, as passed to subscribers. */
+  static final class Deleted {
+    private final Object object;
+
+    Deleted(Object object) {
+      this.object = object;
+    }
+
+    Object getObject() {
+      return object;
+    }
+  }
+
+  /** Stops the calls of a subscriber. */
+  interface Subscription extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  DeploymentWatch(
+      SharedInformerFactory informerFactory,
+      CoreV1Api coreV1Api,
+      AppsV1Api appsV1Api,
+      String namespace,
+      ServiceCache serviceCache,
+      JobStatusCache jobStatusCache) {
+    this.serviceCache = serviceCache;
+    this.jobStatusCache = jobStatusCache;
+    String labelSelector = KubeJavaClientUtil.DEPLOYMENT_ID_LABEL;
+    SharedIndexInformer<V1Pod> podInformer =
+        informerFactory.sharedIndexInformerFor(
+            params ->
+                coreV1Api.listNamespacedPodCall(
+                    namespace,
+                    null,
+                    null,
+                    null,
+                    null,
+                    labelSelector,
+                    null,
+                    params.resourceVersion,
+                    params.timeoutSeconds,
+                    params.watch,
+                    null),
+            V1Pod.class,
+            V1PodList.class);
+    SharedIndexInformer<V1Deployment> deploymentInformer =
+        informerFactory.sharedIndexInformerFor(
+            params ->
+                appsV1Api.listNamespacedDeploymentCall(
+                    namespace,
+                    null,
+                    null,
+                    null,
+                    null,
+                    labelSelector,
+                    null,
+                    params.resourceVersion,
+                    params.timeoutSeconds,
+                    params.watch,
+                    null),
+            V1Deployment.class,
+            V1DeploymentList.class);
+    SharedIndexInformer<V1PersistentVolumeClaim> claimInformer =
+        informerFactory.sharedIndexInformerFor(
+            params ->
+                coreV1Api.listNamespacedPersistentVolumeClaimCall(
+                    namespace,
+                    null,
+                    null,
+                    null,
+                    null,
+                    labelSelector,
+                    null,
+                    params.resourceVersion,
+                    params.timeoutSeconds,
+                    params.watch,
+                    null),
+            V1PersistentVolumeClaim.class,
+            V1PersistentVolumeClaimList.class);
+    this.informers = ImmutableList.of(podInformer, deploymentInformer, claimInformer);
+
+    follow(podInformer, V1Pod::getMetadata);
+    follow(deploymentInformer, V1Deployment::getMetadata);
+    follow(claimInformer, V1PersistentVolumeClaim::getMetadata);
+    serviceCache.addEventHandler(handler(service -> service.getMetadata()));
+    jobStatusCache.addEventHandler(handler(job -> job.getMetadata()));
+  }
+
+  private <T> void follow(SharedIndexInformer<T> informer, Function<T, V1ObjectMeta> metadataOf) {
+    informer.addIndexers(
+        ImmutableMap.of(
+            DEPLOYMENT_ID_INDEX,
+            object -> ImmutableList.of(deploymentIdOf(metadataOf.apply(object)))));
+    informer.addEventHandler(handler(metadataOf));
+  }
+
+  private <T> ResourceEventHandler<T> handler(Function<T, V1ObjectMeta> metadataOf) {
+    return new ResourceEventHandler<T>() {
+      @Override
+      public void onAdd(T object) {
+        notifySubscribers(deploymentIdOf(metadataOf.apply(object)), object);
+      }
+
+      @Override
+      public void onUpdate(T oldObject, T newObject) {
+        notifySubscribers(deploymentIdOf(metadataOf.apply(newObject)), newObject);
+      }
+
+      @Override
+      public void onDelete(T object, boolean deletedFinalStateUnknown) {
+        notifySubscribers(deploymentIdOf(metadataOf.apply(object)), new Deleted(object));
+      }
+    };
+  }
+
+  private static String deploymentIdOf(V1ObjectMeta metadata) {
+    Map<String, String> labels = metadata.getLabels();
+    String deploymentId =
+        labels == null ? null : labels.get(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL);
+    return deploymentId == null ? "" : deploymentId;
+  }
+
+  private void notifySubscribers(String deploymentId, Object object) {
+    if (deploymentId.isEmpty()) {
+      return;
+    }
+    Set<Consumer<Object>> subscribers = subscribersById.get(deploymentId);
+    if (subscribers != null) {
+      subscribers.forEach(subscriber -> subscriber.accept(object));
+    }
+  }
+
+  /** Blocks until the informers have completed their initial LIST. */
+  void waitForSync() throws InterruptedException {
+    for (SharedIndexInformer<?> informer : informers) {
+      while (!informer.hasSynced()) {
+        Thread.sleep(SYNC_POLL_INTERVAL_MILLIS);
+      }
+    }
+  }
+
+  /**
+   * Calls the subscriber with every object of the deployment that is added, updated or deleted from
+   * now on, and right away with the cached objects of it, so nothing that happened before is missed.
+   * The subscriber may be called concurrently and more than once for the same state.
+   */
+  Subscription subscribe(String deploymentId, Consumer<Object> subscriber) {
+    subscribersById.compute(
+        deploymentId,
+        (unused, subscribers) -> {
+          Set<Consumer<Object>> updated =
+              subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+          updated.add(subscriber);
+          return updated;
+        });
+    jobStatusCache
+        .listByLabel(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL, deploymentId)
+        .forEach(subscriber);
+    for (SharedIndexInformer<?> informer : informers) {
+      List<?> objects = informer.getIndexer().byIndex(DEPLOYMENT_ID_INDEX, deploymentId);
+      objects.forEach(subscriber);
+    }
+    serviceCache
+        .listByLabel(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL, deploymentId)
+        .forEach(subscriber);
+    return () ->
+        subscribersById.computeIfPresent(
+            deploymentId,
+            (unused, subscribers) -> {
+              subscribers.remove(subscriber);
+              return subscribers.isEmpty() ? null : subscribers;
+            });
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.tsunami.security.scanner.utilities;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records the latency, status code and in-flight count of every RPC in the default Prometheus
+ * registry, labelled by method.
+ */
+final class GrpcMetricsInterceptor implements ServerInterceptor {
+
+  private static final Gauge IN_FLIGHT =
+      Gauge.build()
+          .name("tsunami_testbed_grpc_requests_in_flight")
+          .help("RPCs started and not yet completed, by method.")
+          .labelNames("method")
+          .register();
+
+  private static final Counter REQUESTS =
+      Counter.build()
+          .name("tsunami_testbed_grpc_requests_total")
+          .help("Completed RPCs by method and status code.")
+          .labelNames("method", "code")
+          .register();
+
+  private static final Histogram LATENCY =
+      Histogram.build()
+          .name("tsunami_testbed_grpc_request_duration_seconds")
+          .help("Time from the start of an RPC until its status was sent, by method.")
+          .labelNames("method")
+          .buckets(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60)
+          .register();
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    String method = call.getMethodDescriptor().getFullMethodName();
+    long startNanos = System.nanoTime();
+    // A call ends either with the status sent by the service or with the client cancelling it.
+    AtomicBoolean recorded = new AtomicBoolean();
+    IN_FLIGHT.labels(method).inc();
+
+    ServerCall<ReqT, RespT> measuredCall =
+        new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+          @Override
+          public void close(Status status, Metadata trailers) {
+            record(method, status.getCode(), startNanos, recorded);
+            super.close(status, trailers);
+          }
+        };
+    return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(
+        next.startCall(measuredCall, headers)) {
+      @Override
+      public void onCancel() {
+        record(method, Status.Code.CANCELLED, startNanos, recorded);
+        super.onCancel();
+      }
+    };
+  }
+
+  private static void record(
+      String method, Status.Code code, long startNanos, AtomicBoolean recorded) {
+    if (!recorded.compareAndSet(false, true)) {
+      return;
+    }
+    IN_FLIGHT.labels(method).dec();
+    REQUESTS.labels(method, code.name()).inc();
+    LATENCY.labels(method).observe((System.nanoTime() - startNanos) / 1e9);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Longs;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.informer.cache.Indexer;
+import io.kubernetes.client.openapi.apis.BatchV1Api;
+import io.kubernetes.client.openapi.models.V1Job;
+import io.kubernetes.client.openapi.models.V1JobList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import tsunami.security.scanner.utilities.KubeJavaClientUtil;
+
+/**
+ * An in-memory index of the deployer Jobs in a namespace, kept up to date by a shared informer.
+ *
+ * <p>Jobs are indexed by their unique id, which is the id handed out by CreateDeployment, so the
+ * state of a deployment can be looked up without listing Jobs.
+ */
+final class JobStatusCache {
+
+  private static final String UID_INDEX = "uid";
+  private static final long SYNC_POLL_INTERVAL_MILLIS = 100;
+
+  private final SharedIndexInformer<V1Job> informer;
+  private final Indexer<V1Job> indexer;
+
+  JobStatusCache(SharedInformerFactory informerFactory, BatchV1Api batchV1Api, String namespace) {
+    this.informer =
+        informerFactory.sharedIndexInformerFor(
+            params ->
+                batchV1Api.listNamespacedJobCall(
+                    namespace,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    params.resourceVersion,
+                    params.timeoutSeconds,
+                    params.watch,
+                    null),
+            V1Job.class,
+            V1JobList.class);
+    informer.addIndexers(
+        ImmutableMap.of(UID_INDEX, v1Job -> ImmutableList.of(v1Job.getMetadata().getUid())));
+    this.indexer = informer.getIndexer();
+  }
+
+  /** Calls the handler with every change of a cached Job. */
+  void addEventHandler(ResourceEventHandler<V1Job> handler) {
+    informer.addEventHandler(handler);
+  }
+
+  /** Blocks until the informer has completed its initial LIST. */
+  void waitForSync() throws InterruptedException {
+    while (!informer.hasSynced()) {
+      Thread.sleep(SYNC_POLL_INTERVAL_MILLIS);
+    }
+  }
+
+  /**
+   * Returns the ids of the deployments whose deployer Job is labelled with an expiry at or before
+   * the given epoch second.
+   */
+  ImmutableSet<String> listExpiredDeploymentIds(long nowEpochSecond) {
+    ImmutableSet.Builder<String> deploymentIds = ImmutableSet.builder();
+    for (V1Job job : indexer.list()) {
+      Map<String, String> labels = job.getMetadata().getLabels();
+      if (labels == null || !labels.containsKey(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL)) {
+        continue;
+      }
+      Long expiresAt = Longs.tryParse(labels.getOrDefault(KubeJavaClientUtil.EXPIRES_AT_LABEL, ""));
+      // An expiry of 0 marks a deployment that is never reaped.
+      if (expiresAt != null && expiresAt > 0 && expiresAt <= nowEpochSecond) {
+        deploymentIds.add(labels.get(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL));
+      }
+    }
+    return deploymentIds.build();
+  }
+
+  /** Returns the cached Jobs carrying the label with the given value. */
+  ImmutableList<V1Job> listByLabel(String key, String value) {
+    return indexer.list().stream()
+        .filter(
+            job ->
+                job.getMetadata().getLabels() != null
+                    && value.equals(job.getMetadata().getLabels().get(key)))
+        .collect(toImmutableList());
+  }
+
+  /** Returns the Job with the given unique id. */
+  Optional<V1Job> getByUid(String uid) {
+    List<V1Job> jobs = indexer.byIndex(UID_INDEX, uid);
+    return jobs.isEmpty() ? Optional.empty() : Optional.of(jobs.get(0));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * An equality-based Kubernetes label selector, such as {@code app=jupyter,tier!=db,managed}, that
+ * is evaluated against objects held in memory. Set-based requirements are not supported.
+ */
+final class LabelSelector implements Predicate<Map<String, String>> {
+
+  private static final LabelSelector EVERYTHING = new LabelSelector(ImmutableList.of());
+  // An optional DNS subdomain prefix and a name, as allowed for Kubernetes label keys.
+  private static final Pattern KEY =
+      Pattern.compile(
+          "([a-z0-9]([-a-z0-9]*[a-z0-9])?(\\.[a-z0-9]([-a-z0-9]*[a-z0-9])?)*/)?"
+              + "[A-Za-z0-9]([-A-Za-z0-9_.]*[A-Za-z0-9])?");
+  private static final Pattern VALUE =
+      Pattern.compile("([A-Za-z0-9]([-A-Za-z0-9_.]*[A-Za-z0-9])?)?");
+
+  private final ImmutableList<Predicate<Map<String, String>>> requirements;
+
+  private LabelSelector(ImmutableList<Predicate<Map<String, String>>> requirements) {
+    this.requirements = requirements;
+  }
+
+  /** Parses a selector; an empty selector matches everything. */
+  static LabelSelector parse(String selector) {
+    if (selector.trim().isEmpty()) {
+      return EVERYTHING;
+    }
+    ImmutableList.Builder<Predicate<Map<String, String>>> requirements = ImmutableList.builder();
+    for (String requirement : Splitter.on(',').trimResults().split(selector)) {
+      requirements.add(parseRequirement(requirement));
+    }
+    return new LabelSelector(requirements.build());
+  }
+
+  private static Predicate<Map<String, String>> parseRequirement(String requirement) {
+    int index;
+    if ((index = requirement.indexOf("!=")) >= 0) {
+      String key = checkKey(requirement.substring(0, index), requirement);
+      String value = checkValue(requirement.substring(index + 2), requirement);
+      return labels -> !Objects.equals(labels.get(key), value);
+    }
+    if ((index = requirement.indexOf("==")) >= 0) {
+      String key = checkKey(requirement.substring(0, index), requirement);
+      String value = checkValue(requirement.substring(index + 2), requirement);
+      return labels -> value.equals(labels.get(key));
+    }
+    if ((index = requirement.indexOf('=')) >= 0) {
+      String key = checkKey(requirement.substring(0, index), requirement);
+      String value = checkValue(requirement.substring(index + 1), requirement);
+      return labels -> value.equals(labels.get(key));
+    }
+    if (requirement.startsWith("!")) {
+      String key = checkKey(requirement.substring(1), requirement);
+      return labels -> !labels.containsKey(key);
+    }
+    String key = checkKey(requirement, requirement);
+    return labels -> labels.containsKey(key);
+  }
+
+  // Rejects anything but a plain key, such as the set-based "tier in (db,cache)".
+  private static String checkKey(String key, String requirement) {
+    return check(KEY, key, requirement);
+  }
+
+  private static String checkValue(String value, String requirement) {
+    return check(VALUE, value, requirement);
+  }
+
+  private static String check(Pattern pattern, String text, String requirement) {
+    String trimmed = text.trim();
+    if (!pattern.matcher(trimmed).matches()) {
+      throw new IllegalArgumentException("Unsupported label selector requirement: " + requirement);
+    }
+    return trimmed;
+  }
+
+  @Override
+  public boolean test(Map<String, String> labels) {
+    for (Predicate<Map<String, String>> requirement : requirements) {
+      if (!requirement.test(labels)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.BatchV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import tsunami.security.scanner.utilities.KubeTransport;
+
+/**
+ * The caches and deployment worker pool serving one namespace.
+ *
+ * <p>Each namespace gets its own informers and its own bounded pool, so a tenant with many
+ * deployments or objects does not slow down lookups and creates in other namespaces.
+ */
+final class NamespaceShard {
+
+  private final String namespace;
+  private final SharedInformerFactory informerFactory;
+  private final ServiceCache serviceCache;
+  private final JobStatusCache jobStatusCache;
+  private final DeploymentWatch deploymentWatch;
+  private final ListeningExecutorService deploymentExecutor;
+
+  private NamespaceShard(
+      String namespace,
+      SharedInformerFactory informerFactory,
+      ServiceCache serviceCache,
+      JobStatusCache jobStatusCache,
+      DeploymentWatch deploymentWatch,
+      ListeningExecutorService deploymentExecutor) {
+    this.namespace = namespace;
+    this.informerFactory = informerFactory;
+    this.serviceCache = serviceCache;
+    this.jobStatusCache = jobStatusCache;
+    this.deploymentWatch = deploymentWatch;
+    this.deploymentExecutor = deploymentExecutor;
+  }
+
+  static NamespaceShard create(
+      String namespace,
+      KubeTransport transport,
+      String serviceLabelSelector,
+      int deploymentThreads,
+      int deploymentQueueCapacity) {
+    // The informer factory keeps one informer per type, so every namespace needs its own.
+    SharedInformerFactory informerFactory = new SharedInformerFactory(transport.getWatchClient());
+    ServiceCache serviceCache =
+        new ServiceCache(
+            informerFactory,
+            new CoreV1Api(transport.getWatchClient()),
+            namespace,
+            serviceLabelSelector);
+    JobStatusCache jobStatusCache =
+        new JobStatusCache(informerFactory, new BatchV1Api(transport.getWatchClient()), namespace);
+    DeploymentWatch deploymentWatch =
+        new DeploymentWatch(
+            informerFactory,
+            new CoreV1Api(transport.getWatchClient()),
+            new AppsV1Api(transport.getWatchClient()),
+            namespace,
+            serviceCache,
+            jobStatusCache);
+
+    // Bounded pool for the CreateDeployment pipeline, kept off the gRPC handler threads.
+    ListeningExecutorService deploymentExecutor =
+        MoreExecutors.listeningDecorator(
+            new ThreadPoolExecutor(
+                deploymentThreads,
+                deploymentThreads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(deploymentQueueCapacity),
+                new ThreadFactoryBuilder()
+                    .setNameFormat("deployment-" + namespace + "-%d")
+                    .setDaemon(true)
+                    .build()));
+
+    return new NamespaceShard(
+        namespace,
+        informerFactory,
+        serviceCache,
+        jobStatusCache,
+        deploymentWatch,
+        deploymentExecutor);
+  }
+
+  /** Starts the informers and blocks until their caches are synced. */
+  void start() throws InterruptedException {
+    informerFactory.startAllRegisteredInformers();
+    serviceCache.waitForSync();
+    jobStatusCache.waitForSync();
+    deploymentWatch.waitForSync();
+  }
+
+  void stop() {
+    deploymentExecutor.shutdown();
+    informerFactory.stopAllRegisteredInformers();
+  }
+
+  String getNamespace() {
+    return namespace;
+  }
+
+  ServiceCache getServiceCache() {
+    return serviceCache;
+  }
+
+  JobStatusCache getJobStatusCache() {
+    return jobStatusCache;
+  }
+
+  DeploymentWatch getDeploymentWatch() {
+    return deploymentWatch;
+  }
+
+  ListeningExecutorService getDeploymentExecutor() {
+    return deploymentExecutor;
+  }
+}
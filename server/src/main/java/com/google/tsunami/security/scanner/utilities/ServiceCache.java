@@ -0,0 +1,232 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.base.Strings.emptyToNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.informer.cache.Lister;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1Service;
+import io.kubernetes.client.openapi.models.V1ServiceList;
+import io.kubernetes.client.util.CallGenerator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * An in-memory cache of the Services in a namespace, kept up to date by a shared informer.
+ *
+ * <p>The informer performs one LIST on start and then follows a WATCH, so lookups are answered
+ * from memory and the load on the API server does not grow with the RPC rate. Callers waiting for
+ * a Service to reach some state are completed from the same WATCH.
+ */
+final class ServiceCache {
+
+  private static final long SYNC_POLL_INTERVAL_MILLIS = 100;
+
+  private final String namespace;
+  private final SharedIndexInformer<V1Service> informer;
+  private final Lister<V1Service> lister;
+  private final ConcurrentMap<String, Set<Waiter>> waitersByName = new ConcurrentHashMap<>();
+
+  /** A caller waiting for a Service to satisfy a condition. */
+  private static final class Waiter {
+    private final Predicate<V1Service> condition;
+    private final SettableFuture<V1Service> future = SettableFuture.create();
+
+    private Waiter(Predicate<V1Service> condition) {
+      this.condition = condition;
+    }
+
+    private void offer(V1Service service) {
+      if (condition.test(service)) {
+        future.set(service);
+      }
+    }
+  }
+
+  /**
+   * Creates the cache. A non-empty labelSelector is applied on the server side, so Services that
+   * are not managed by the testbed are never transferred or held in memory.
+   */
+  ServiceCache(
+      SharedInformerFactory informerFactory,
+      CoreV1Api coreV1Api,
+      String namespace,
+      String labelSelector) {
+    this(
+        informerFactory,
+        namespace,
+        params ->
+            coreV1Api.listNamespacedServiceCall(
+                namespace,
+                null,
+                null,
+                null,
+                null,
+                emptyToNull(labelSelector),
+                null,
+                params.resourceVersion,
+                params.timeoutSeconds,
+                params.watch,
+                null));
+  }
+
+  private ServiceCache(
+      SharedInformerFactory informerFactory, String namespace, CallGenerator callGenerator) {
+    this.namespace = namespace;
+    this.informer =
+        informerFactory.sharedIndexInformerFor(callGenerator, V1Service.class, V1ServiceList.class);
+    this.lister = new Lister<>(informer.getIndexer(), namespace);
+    informer.addEventHandler(
+        new ResourceEventHandler<V1Service>() {
+          @Override
+          public void onAdd(V1Service service) {
+            notifyWaiters(service);
+          }
+
+          @Override
+          public void onUpdate(V1Service oldService, V1Service newService) {
+            notifyWaiters(newService);
+          }
+
+          @Override
+          public void onDelete(V1Service service, boolean deletedFinalStateUnknown) {}
+        });
+  }
+
+  /**
+   * Creates a cache of the Services of every namespace that match the labelSelector, which must not
+   * be empty. Its Services are read with {@link #listInNamespace}; lookups by name alone and
+   * {@link #listKeys} are only meant for the cache of a single namespace.
+   */
+  static ServiceCache forAllNamespaces(
+      SharedInformerFactory informerFactory, CoreV1Api coreV1Api, String labelSelector) {
+    return new ServiceCache(
+        informerFactory,
+        null,
+        params ->
+            coreV1Api.listServiceForAllNamespacesCall(
+                null,
+                null,
+                null,
+                labelSelector,
+                null,
+                null,
+                params.resourceVersion,
+                params.timeoutSeconds,
+                params.watch,
+                null));
+  }
+
+  /** Calls the handler with every change of a cached Service. */
+  void addEventHandler(ResourceEventHandler<V1Service> handler) {
+    informer.addEventHandler(handler);
+  }
+
+  /** Blocks until the informer has completed its initial LIST. */
+  void waitForSync() throws InterruptedException {
+    while (!informer.hasSynced()) {
+      Thread.sleep(SYNC_POLL_INTERVAL_MILLIS);
+    }
+  }
+
+  /** Returns the Service with the given name, looked up by its namespace/name key. */
+  Optional<V1Service> get(String name) {
+    return Optional.ofNullable(lister.get(name));
+  }
+
+  /**
+   * Returns a future completed with the Service of the given name once it satisfies the condition,
+   * which may be right away. The future never fails; cancelling it stops the wait.
+   */
+  ListenableFuture<V1Service> await(String name, Predicate<V1Service> condition) {
+    Waiter waiter = new Waiter(condition);
+    waitersByName.compute(
+        name,
+        (unused, waiters) -> {
+          Set<Waiter> updated = waiters == null ? ConcurrentHashMap.newKeySet() : waiters;
+          updated.add(waiter);
+          return updated;
+        });
+    waiter.future.addListener(
+        () ->
+            waitersByName.computeIfPresent(
+                name,
+                (unused, waiters) -> {
+                  waiters.remove(waiter);
+                  return waiters.isEmpty() ? null : waiters;
+                }),
+        directExecutor());
+    // Check after registering, so a change between the check and the registration is not missed.
+    get(name).ifPresent(waiter::offer);
+    return waiter.future;
+  }
+
+  private void notifyWaiters(V1Service service) {
+    Set<Waiter> waiters = waitersByName.get(service.getMetadata().getName());
+    if (waiters != null) {
+      waiters.forEach(waiter -> waiter.offer(service));
+    }
+  }
+
+  /** Returns the cached Services of the namespace. */
+  ImmutableList<V1Service> listInNamespace(String namespace) {
+    return ImmutableList.copyOf(lister.namespace(namespace).list());
+  }
+
+  /** Returns the cached Services carrying the label with the given value. */
+  ImmutableList<V1Service> listByLabel(String key, String value) {
+    return lister.list().stream()
+        .filter(
+            service ->
+                service.getMetadata().getLabels() != null
+                    && value.equals(service.getMetadata().getLabels().get(key)))
+        .collect(toImmutableList());
+  }
+
+  /**
+   * Returns, in key order, the namespace/name keys of cached Services whose labels match the
+   * selector and whose key sorts after startAfter (if not empty). At most limit keys are returned.
+   */
+  ImmutableList<String> listKeys(
+      Predicate<Map<String, String>> labelSelector, String startAfter, long limit) {
+    return lister.list().stream()
+        .map(V1Service::getMetadata)
+        .filter(
+            metadata ->
+                labelSelector.test(
+                    metadata.getLabels() == null ? ImmutableMap.of() : metadata.getLabels()))
+        .map(metadata -> namespace + "/" + metadata.getName())
+        .filter(key -> startAfter.isEmpty() || key.compareTo(startAfter) > 0)
+        .sorted()
+        .limit(limit)
+        .collect(toImmutableList());
+  }
+}
@@ -16,22 +16,47 @@
 
 package com.google.tsunami.security.scanner.utilities;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.google.common.collect.ImmutableList;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
-import io.kubernetes.client.openapi.ApiClient;
+import io.grpc.ServerInterceptors;
+import io.kubernetes.client.informer.SharedInformerFactory;
 import io.kubernetes.client.openapi.Configuration;
-import io.kubernetes.client.util.Config;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.prometheus.client.exporter.HTTPServer;
+import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import tsunami.security.scanner.utilities.KubeTransport;
+import tsunami.security.scanner.utilities.KubeTransportArgs;
+import tsunami.security.scanner.utilities.RenderedManifestCache;
+import tsunami.security.scanner.utilities.TemplateWatcher;
 
 /** Builds and starts a GRPC-based Tsunami Testbed server. */
 public final class TsunamiTestbedServer {
 
   private static final int DEFAULT_PORT = 8000;
+  private static final int DEFAULT_METRICS_PORT = 8001;
+  private static final int DEFAULT_DEPLOYMENT_THREADS = 8;
+  private static final int DEFAULT_DEPLOYMENT_QUEUE_CAPACITY = 100;
+  private static final int DEFAULT_MAX_BATCH_IN_FLIGHT = 8;
+  private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+  private static final long DEFAULT_WARM_POOL_REFILL_SECONDS = 10;
+  private static final long DEFAULT_WARM_POOL_LEASE_SECONDS = 60 * 60;
+  private static final long DEFAULT_MANIFEST_CACHE_SIZE = 256;
+  private static final long DEFAULT_DEPLOYMENT_TTL_SECONDS = 24 * 60 * 60;
+  private static final long DEFAULT_REAPER_INTERVAL_SECONDS = 60;
+  private static final long DEFAULT_MAX_WAIT_SECONDS = 600;
+  private static final long DEFAULT_MANIFEST_CACHE_MAX_AGE_SECONDS = 3600;
 
   @Parameters
   private static class TsunamiTestbedServerArgs {
@@ -41,6 +66,107 @@ public final class TsunamiTestbedServer {
         validateWith = ValidPort.class)
     public int port = DEFAULT_PORT;
 
+    @Parameter(
+        names = "--metrics_port",
+        description =
+            "The port serving gRPC and Kubernetes Api metrics in Prometheus format at /metrics."
+                + " 0 disables it.")
+    public int metricsPort = DEFAULT_METRICS_PORT;
+
+    @Parameter(
+        names = "--namespaces",
+        description =
+            "Comma-separated namespaces served by this server, each with its own caches"
+                + " and deployment worker pool.")
+    public List<String> namespaces = ImmutableList.of("default");
+
+    @Parameter(
+        names = "--deployment_threads",
+        description = "Number of threads per namespace rendering and submitting deployments.")
+    public int deploymentThreads = DEFAULT_DEPLOYMENT_THREADS;
+
+    @Parameter(
+        names = "--deployment_queue_capacity",
+        description =
+            "Number of deployments per namespace that may wait for a thread before being"
+                + " rejected.")
+    public int deploymentQueueCapacity = DEFAULT_DEPLOYMENT_QUEUE_CAPACITY;
+
+    @Parameter(
+        names = "--max_batch_in_flight",
+        description = "Maximum number of deployments of one CreateDeployments call in progress.")
+    public int maxBatchInFlight = DEFAULT_MAX_BATCH_IN_FLIGHT;
+
+    @Parameter(
+        names = "--max_batch_size",
+        description = "Maximum number of deployments in one CreateDeployments call.")
+    public int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    @Parameter(
+        names = "--service_label_selector",
+        description = "Label selector limiting which Services are cached and listed.")
+    public String serviceLabelSelector = "";
+
+    @Parameter(
+        names = "--manifest_cache_size",
+        description = "Maximum number of rendered deployer jobs kept in memory and on disk.")
+    public long manifestCacheSize = DEFAULT_MANIFEST_CACHE_SIZE;
+
+    @Parameter(
+        names = "--manifest_cache_max_age_seconds",
+        description = "Age after which a rendered deployer job is rendered again.")
+    public long manifestCacheMaxAgeSeconds = DEFAULT_MANIFEST_CACHE_MAX_AGE_SECONDS;
+
+    @Parameter(
+        names = "--manifest_cache_dir",
+        description =
+            "Directory keeping rendered deployer jobs across restarts. Empty keeps them in memory"
+                + " only.")
+    public String manifestCacheDir = "";
+
+    @Parameter(
+        names = "--template_dirs",
+        description =
+            "Comma-separated directories of deployer job templates kept in memory and reloaded"
+                + " when their files change. Templates elsewhere are read on every render.")
+    public List<String> templateDirs = ImmutableList.of();
+
+    @Parameter(
+        names = "--deployment_ttl_seconds",
+        description = "Seconds after which a deployment is deleted, unless its request sets one.")
+    public long deploymentTtlSeconds = DEFAULT_DEPLOYMENT_TTL_SECONDS;
+
+    @Parameter(
+        names = "--reaper_interval_seconds",
+        description = "Interval between runs deleting expired deployments.")
+    public long reaperIntervalSeconds = DEFAULT_REAPER_INTERVAL_SECONDS;
+
+    @Parameter(
+        names = "--max_wait_seconds",
+        description = "Longest time a WaitForApplicationReady call is held.")
+    public long maxWaitSeconds = DEFAULT_MAX_WAIT_SECONDS;
+
+    @Parameter(
+        names = "--warm_pool_config",
+        description =
+            "JSON file listing the applications kept ready for AcquireApplication. Empty"
+                + " disables the warm pool.")
+    public String warmPoolConfig = "";
+
+    @Parameter(
+        names = "--warm_pool_refill_seconds",
+        description = "Interval between checks that refill the warm pool.")
+    public long warmPoolRefillSeconds = DEFAULT_WARM_POOL_REFILL_SECONDS;
+
+    @Parameter(
+        names = "--warm_pool_lease_seconds",
+        description =
+            "Seconds after which a leased warm pool instance is torn down, unless the"
+                + " AcquireApplication call sets one.")
+    public long warmPoolLeaseSeconds = DEFAULT_WARM_POOL_LEASE_SECONDS;
+
+    @ParametersDelegate public KubeTransportArgs transportArgs = new KubeTransportArgs();
+
     @Parameter(
         names = {"--help", "-h"},
         description = "Print parameters and description.",
@@ -64,11 +190,91 @@ public final class TsunamiTestbedServer {
 
     int port = serverArgs.port;
 
-    ApiClient client = Config.defaultClient();
-    Configuration.setDefaultApiClient(client);
+    KubeTransport transport = KubeTransport.create(serverArgs.transportArgs);
+    Configuration.setDefaultApiClient(transport.getApiClient());
     System.out.println("Initialized Kubernetes Api Client.");
 
-    final TsunamiTestbedUtil util = new TsunamiTestbedUtil();
+    // Start one shard per namespace, each watching its Services and Jobs so lookups are served
+    // from memory, with its own deployment worker pool.
+    ImmutableList.Builder<NamespaceShard> shardsBuilder = ImmutableList.builder();
+    for (String namespace : serverArgs.namespaces) {
+      NamespaceShard shard =
+          NamespaceShard.create(
+              namespace,
+              transport,
+              serverArgs.serviceLabelSelector,
+              serverArgs.deploymentThreads,
+              serverArgs.deploymentQueueCapacity);
+      shard.start();
+      shardsBuilder.add(shard);
+      System.out.println("Synced Service and Job caches of namespace " + namespace);
+    }
+    final ImmutableList<NamespaceShard> shards = shardsBuilder.build();
+
+    // Keep the deployer job templates resident, so deployments do not read them from disk.
+    final TemplateWatcher templateWatcher =
+        serverArgs.templateDirs.isEmpty()
+            ? null
+            : TemplateWatcher.start(
+                serverArgs.templateDirs.stream().map(File::new).collect(toImmutableList()));
+
+    // Deployer jobs rendered with the same template and data are reused instead of re-rendered.
+    RenderedManifestCache manifestCache =
+        new RenderedManifestCache(
+            serverArgs.manifestCacheSize,
+            Duration.ofSeconds(serverArgs.manifestCacheMaxAgeSeconds),
+            serverArgs.manifestCacheDir.isEmpty() ? null : new File(serverArgs.manifestCacheDir),
+            templateWatcher);
+
+    // Delete expired deployments in bulk, found through the labels of their deployer jobs.
+    final DeploymentReaper reaper =
+        new DeploymentReaper(
+            shards,
+            transport.getCoreV1Api(),
+            transport.getAppsV1Api(),
+            transport.getBatchV1Api(),
+            serverArgs.reaperIntervalSeconds);
+    reaper.start();
+
+    final TsunamiTestbedUtil util =
+        new TsunamiTestbedUtil(
+            shards,
+            transport.getBatchV1Api(),
+            serverArgs.maxBatchInFlight,
+            serverArgs.maxBatchSize,
+            manifestCache,
+            reaper,
+            serverArgs.deploymentTtlSeconds,
+            serverArgs.maxWaitSeconds);
+
+    // Keep configured applications deployed ahead of time so they can be leased right away. The
+    // Services of their namespaces are followed by a cache of their own.
+    ImmutableList<WarmPool.Spec> warmPoolSpecs =
+        serverArgs.warmPoolConfig.isEmpty()
+            ? ImmutableList.of()
+            : WarmPool.loadSpecs(new File(serverArgs.warmPoolConfig));
+    final SharedInformerFactory warmPoolInformerFactory =
+        new SharedInformerFactory(transport.getWatchClient());
+    ServiceCache warmPoolServiceCache =
+        ServiceCache.forAllNamespaces(
+            warmPoolInformerFactory,
+            new CoreV1Api(transport.getWatchClient()),
+            WarmPool.SERVICE_LABEL_SELECTOR);
+    if (!warmPoolSpecs.isEmpty()) {
+      warmPoolInformerFactory.startAllRegisteredInformers();
+      warmPoolServiceCache.waitForSync();
+    }
+    final WarmPool warmPool =
+        new WarmPool(
+            warmPoolSpecs,
+            transport.getCoreV1Api(),
+            transport.getAppsV1Api(),
+            transport.getBatchV1Api(),
+            warmPoolServiceCache,
+            manifestCache,
+            serverArgs.warmPoolRefillSeconds,
+            serverArgs.warmPoolLeaseSeconds);
+    warmPool.start();
     final TsunamiTestbedServer server = new TsunamiTestbedServer();
     Runtime.getRuntime()
         .addShutdownHook(
@@ -78,21 +284,38 @@ public final class TsunamiTestbedServer {
                 try {
                   System.out.println("Shutting down");
                   server.stop();
+                  warmPool.stop();
+                  warmPoolInformerFactory.stopAllRegisteredInformers();
+                  reaper.stop();
+                  shards.forEach(NamespaceShard::stop);
+                  if (templateWatcher != null) {
+                    templateWatcher.close();
+                  }
                 } catch (Exception e) {
                   e.printStackTrace();
                 }
               }
             });
-    server.start(port, util);
+    server.start(port, util, warmPool);
     System.out.format("Testbed service listening on %d\n", port);
+    if (serverArgs.metricsPort > 0) {
+      // Serves the default registry, holding the RPC and Kubernetes Api call metrics.
+      new HTTPServer(serverArgs.metricsPort, true);
+      System.out.format("Metrics served on %d\n", serverArgs.metricsPort);
+    }
     server.blockUntilShutdown();
   }
 
   private Server server;
 
-  private void start(int port, TsunamiTestbedUtil util) throws IOException {
+  private void start(int port, TsunamiTestbedUtil util, WarmPool warmPool) throws IOException {
     server =
-        ServerBuilder.forPort(port).addService(new TsunamiTestbedService(util)).build().start();
+        ServerBuilder.forPort(port)
+            .addService(
+                ServerInterceptors.intercept(
+                    new TsunamiTestbedService(util, warmPool), new GrpcMetricsInterceptor()))
+            .build()
+            .start();
   }
 
   private void stop() throws Exception {
@@ -16,30 +16,100 @@
 
 package com.google.tsunami.security.scanner.utilities;
 
-import com.google.protobuf.Empty;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Context;
 import io.grpc.stub.StreamObserver;
 
 /** Implements the Tsunami Testbed GRPC service. */
 public final class TsunamiTestbedService extends TsunamiTestbedGrpc.TsunamiTestbedImplBase {
   private final TsunamiTestbedUtil util;
+  private final WarmPool warmPool;
 
-  public TsunamiTestbedService(TsunamiTestbedUtil util) {
+  public TsunamiTestbedService(TsunamiTestbedUtil util, WarmPool warmPool) {
     this.util = util;
+    this.warmPool = warmPool;
   }
 
   @Override
   public void createDeployment(
       CreateDeploymentRequest request, StreamObserver<CreateDeploymentResponse> responseObserver) {
+    // The deployment is rendered and created off the handler thread; the observer is completed
+    // from the callback.
+    Futures.addCallback(
+        util.createDeployment(request),
+        new FutureCallback<CreateDeploymentResponse>() {
+          @Override
+          public void onSuccess(CreateDeploymentResponse response) {
+            responseObserver.onNext(response);
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            responseObserver.onError(t);
+          }
+        },
+        directExecutor());
+  }
+
+  @Override
+  public void createDeploymentWithProgress(
+      CreateDeploymentRequest request, StreamObserver<DeploymentProgress> responseObserver) {
+    ListenableFuture<Void> progress =
+        Futures.transformAsync(
+            util.createDeployment(request),
+            response -> util.followDeployment(response, responseObserver::onNext),
+            directExecutor());
+    // Stop following the deployment when the client cancels the call or its deadline passes.
+    Context.current().addListener(context -> progress.cancel(true), directExecutor());
+    Futures.addCallback(
+        progress,
+        new FutureCallback<Void>() {
+          @Override
+          public void onSuccess(Void unused) {
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            responseObserver.onError(t);
+          }
+        },
+        directExecutor());
+  }
+
+  @Override
+  public void createDeployments(
+      CreateDeploymentsRequest request,
+      StreamObserver<CreateDeploymentsResponse> responseObserver) {
+    Futures.addCallback(
+        util.createDeployments(request.getDeploymentsList()),
+        new FutureCallback<ImmutableList<CreateDeploymentResult>>() {
+          @Override
+          public void onSuccess(ImmutableList<CreateDeploymentResult> results) {
+            responseObserver.onNext(
+                CreateDeploymentsResponse.newBuilder().addAllResults(results).build());
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            responseObserver.onError(t);
+          }
+        },
+        directExecutor());
+  }
+
+  @Override
+  public void listApplications(
+      ListApplicationsRequest request, StreamObserver<ListApplicationsResponse> responseObserver) {
     try {
-      CreateDeploymentResponse response =
-          CreateDeploymentResponse.newBuilder()
-              .setJobId(
-                  util.createDeployment(
-                      request.getApplication(),
-                      request.getConfigPath(),
-                      request.getTemplateData(),
-                      request.getDeployerJobPath()))
-              .build();
+      ListApplicationsResponse response = util.listApplications(request);
       responseObserver.onNext(response);
       responseObserver.onCompleted();
     } catch (Throwable t) {
@@ -48,11 +118,14 @@ public final class TsunamiTestbedService extends TsunamiTestbedGrpc.TsunamiTestb
   }
 
   @Override
-  public void listApplications(
-      Empty request, StreamObserver<ListApplicationsResponse> responseObserver) {
+  public void getApplication(
+      GetApplicationRequest request, StreamObserver<GetApplicationResponse> responseObserver) {
     try {
-      ListApplicationsResponse response =
-          ListApplicationsResponse.newBuilder().addAllApplications(util.listApplications()).build();
+      GetApplicationResponse response =
+          GetApplicationResponse.newBuilder()
+              .setServiceEndpoint(
+                  util.getApplication(request.getNamespace(), request.getApplication()))
+              .build();
       responseObserver.onNext(response);
       responseObserver.onCompleted();
     } catch (Throwable t) {
@@ -61,12 +134,43 @@ public final class TsunamiTestbedService extends TsunamiTestbedGrpc.TsunamiTestb
   }
 
   @Override
-  public void getApplication(
-      GetApplicationRequest request, StreamObserver<GetApplicationResponse> responseObserver) {
+  public void waitForApplicationReady(
+      WaitForApplicationReadyRequest request,
+      StreamObserver<WaitForApplicationReadyResponse> responseObserver) {
+    ListenableFuture<ServiceEndpoint> endpoint =
+        util.waitForApplicationReady(
+            request.getNamespace(), request.getApplication(), request.getTimeoutSeconds());
+    // Stop waiting when the client cancels the call or its deadline passes.
+    Context.current().addListener(context -> endpoint.cancel(false), directExecutor());
+    Futures.addCallback(
+        endpoint,
+        new FutureCallback<ServiceEndpoint>() {
+          @Override
+          public void onSuccess(ServiceEndpoint serviceEndpoint) {
+            responseObserver.onNext(
+                WaitForApplicationReadyResponse.newBuilder()
+                    .setServiceEndpoint(serviceEndpoint)
+                    .build());
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            responseObserver.onError(t);
+          }
+        },
+        directExecutor());
+  }
+
+  @Override
+  public void getDeploymentStatus(
+      GetDeploymentStatusRequest request,
+      StreamObserver<GetDeploymentStatusResponse> responseObserver) {
     try {
-      GetApplicationResponse response =
-          GetApplicationResponse.newBuilder()
-              .setServiceEndpoint(util.getApplication(request.getApplication()))
+      GetDeploymentStatusResponse response =
+          GetDeploymentStatusResponse.newBuilder()
+              .setDeploymentStatus(
+                  util.getDeploymentStatus(request.getNamespace(), request.getJobId()))
               .build();
       responseObserver.onNext(response);
       responseObserver.onCompleted();
@@ -74,4 +178,51 @@ public final class TsunamiTestbedService extends TsunamiTestbedGrpc.TsunamiTestb
       responseObserver.onError(t);
     }
   }
+
+  @Override
+  public void deleteDeployment(
+      DeleteDeploymentRequest request, StreamObserver<DeleteDeploymentResponse> responseObserver) {
+    Futures.addCallback(
+        util.deleteDeployment(request),
+        new FutureCallback<DeleteDeploymentResponse>() {
+          @Override
+          public void onSuccess(DeleteDeploymentResponse response) {
+            responseObserver.onNext(response);
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            responseObserver.onError(t);
+          }
+        },
+        directExecutor());
+  }
+
+  @Override
+  public void acquireApplication(
+      AcquireApplicationRequest request,
+      StreamObserver<AcquireApplicationResponse> responseObserver) {
+    try {
+      responseObserver.onNext(
+          warmPool.acquire(
+              request.getApplication(), request.getTemplateData(), request.getLeaseSeconds()));
+      responseObserver.onCompleted();
+    } catch (Throwable t) {
+      responseObserver.onError(t);
+    }
+  }
+
+  @Override
+  public void releaseApplication(
+      ReleaseApplicationRequest request,
+      StreamObserver<ReleaseApplicationResponse> responseObserver) {
+    try {
+      warmPool.release(request.getLeaseId());
+      responseObserver.onNext(ReleaseApplicationResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    } catch (Throwable t) {
+      responseObserver.onError(t);
+    }
+  }
 }
@@ -17,30 +17,144 @@
 package com.google.tsunami.security.scanner.utilities;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Streams;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.protobuf.Timestamp;
 import freemarker.template.TemplateException;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.JSON;
 import io.kubernetes.client.openapi.apis.BatchV1Api;
-import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.models.*;
 import io.kubernetes.client.util.Yaml;
 import java.io.File;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
-import tsunami.security.scanner.utilities.FreeMarkerUtil;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.joda.time.DateTime;
+import tsunami.security.scanner.utilities.DeploymentStageEvent;
+import tsunami.security.scanner.utilities.KubeJavaClientUtil;
+import tsunami.security.scanner.utilities.RenderedManifestCache;
+import tsunami.security.scanner.utilities.TemplateDataUtil;
 
 /** The internal implementation of grpc requests. */
 final class TsunamiTestbedUtil {
 
-  TsunamiTestbedUtil() {}
+  // How long a deployment must stay ready before its progress stream is completed.
+  private static final long PROGRESS_SETTLE_MILLIS = 2000;
+  // Copies Kubernetes models through a JSON tree, with the adapters of the generated client.
+  private static final Gson MODEL_GSON = new JSON().getGson();
 
-  public String createDeployment(
-      String application, String configPath, String templateData, String deployerJobPath)
-      throws IOException, TemplateException, ApiException, InterruptedException {
-    String jobId = "initialID";
+  static {
+    // Load deployer job yaml files as they are rendered.
+    Yaml.addModelMap("v1", "Job", V1Job.class);
+  }
 
+  // Shards in configuration order; requests without a namespace are spread over them by hash.
+  private final ImmutableList<NamespaceShard> shards;
+  private final ImmutableMap<String, NamespaceShard> shardsByNamespace;
+  private final BatchV1Api batchV1Api;
+  private final int maxBatchInFlight;
+  private final int maxBatchSize;
+  private final RenderedManifestCache manifestCache;
+  private final DeploymentReaper reaper;
+  private final long defaultTtlSeconds;
+  private final long maxWaitSeconds;
+  private final ScheduledExecutorService waitTimeoutExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("wait-timeout-%d").setDaemon(true).build());
+  // Deployments in progress, keyed on what determines the created job.
+  private final ConcurrentMap<ImmutableList<Object>, ListenableFuture<CreateDeploymentResponse>>
+      inFlightDeployments = new ConcurrentHashMap<>();
+
+  TsunamiTestbedUtil(
+      ImmutableList<NamespaceShard> shards,
+      BatchV1Api batchV1Api,
+      int maxBatchInFlight,
+      int maxBatchSize,
+      RenderedManifestCache manifestCache,
+      DeploymentReaper reaper,
+      long defaultTtlSeconds,
+      long maxWaitSeconds) {
+    this.shards = shards;
+    this.shardsByNamespace = Maps.uniqueIndex(shards, NamespaceShard::getNamespace);
+    this.batchV1Api = batchV1Api;
+    this.maxBatchInFlight = maxBatchInFlight;
+    this.maxBatchSize = maxBatchSize;
+    this.manifestCache = manifestCache;
+    this.reaper = reaper;
+    this.defaultTtlSeconds = defaultTtlSeconds;
+    this.maxWaitSeconds = maxWaitSeconds;
+  }
+
+  /**
+   * Returns the shard serving the namespace. Without a namespace, the application is mapped to a
+   * shard by consistent hashing, so later requests for the same application reach the same shard.
+   */
+  private NamespaceShard shardFor(String namespace, String application) {
+    if (namespace.isEmpty()) {
+      return shards.get(
+          Hashing.consistentHash(
+              Hashing.murmur3_32().hashString(application, UTF_8), shards.size()));
+    }
+    NamespaceShard shard = shardsByNamespace.get(namespace);
+    if (shard == null) {
+      throw Status.INVALID_ARGUMENT
+          .withDescription("Namespace " + namespace + " is not served by this server.")
+          .asRuntimeException();
+    }
+    return shard;
+  }
+
+  /** Returns the shard serving the namespace, or all shards if no namespace is given. */
+  private ImmutableList<NamespaceShard> shardsFor(String namespace) {
+    return namespace.isEmpty() ? shards : ImmutableList.of(shardFor(namespace, ""));
+  }
+
+  /**
+   * Renders the deployer job on the namespace's deployment executor and creates it with an async
+   * Kubernetes call, so the calling thread never blocks. The returned future holds the job's
+   * unique id and namespace.
+   *
+   * <p>A request identical to one still in flight attaches to it instead of rendering and creating
+   * a second job that would fail with AlreadyExists, so both callers get the same job.
+   */
+  public ListenableFuture<CreateDeploymentResponse> createDeployment(
+      CreateDeploymentRequest request) {
+    String application = request.getApplication();
+    String configPath = request.getConfigPath();
+    String templateData = request.getTemplateData();
+    String deployerJobPath = request.getDeployerJobPath();
     System.out.println("[GRPC REQUEST: CreateDeployment] Creating deployment of : " + application);
     System.out.println(
         "app: "
@@ -52,96 +166,626 @@ final class TsunamiTestbedUtil {
             + " job yaml path: "
             + deployerJobPath);
 
-    BatchV1Api batchV1Api = new BatchV1Api();
+    NamespaceShard shard;
+    ImmutableSortedMap<String, String> templateValues;
+    try {
+      shard = shardFor(request.getNamespace(), application);
+      templateValues = templateValuesOf(request);
+    } catch (StatusRuntimeException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    String namespace = shard.getNamespace();
+    long ttlSeconds = request.getTtlSeconds() > 0 ? request.getTtlSeconds() : defaultTtlSeconds;
+
+    // The TTL is part of the key, so no request gets the expiry of another one.
+    ImmutableList<Object> key =
+        ImmutableList.of(
+            namespace, application, configPath, templateValues, deployerJobPath, ttlSeconds);
+    SettableFuture<CreateDeploymentResponse> deployment = SettableFuture.create();
+    ListenableFuture<CreateDeploymentResponse> inFlightDeployment =
+        inFlightDeployments.putIfAbsent(key, deployment);
+    if (inFlightDeployment != null) {
+      System.out.println("Attaching to in-flight deployment of " + application);
+      return Futures.nonCancellationPropagating(inFlightDeployment);
+    }
+    deployment.setFuture(
+        startDeployment(
+            shard, application, configPath, templateValues, deployerJobPath, ttlSeconds));
+    deployment.addListener(() -> inFlightDeployments.remove(key, deployment), directExecutor());
+    // One caller giving up must not cancel the deployment the others are waiting for.
+    return Futures.nonCancellationPropagating(deployment);
+  }
+
+  private ListenableFuture<CreateDeploymentResponse> startDeployment(
+      NamespaceShard shard,
+      String application,
+      String configPath,
+      ImmutableSortedMap<String, String> templateValues,
+      String deployerJobPath,
+      long ttlSeconds) {
+    String namespace = shard.getNamespace();
+    String deploymentId = UUID.randomUUID().toString().replace("-", "");
+    long expiresAt = Instant.now().getEpochSecond() + ttlSeconds;
+    ListenableFuture<V1Job> deployerJob;
+    try {
+      deployerJob =
+          shard
+              .getDeploymentExecutor()
+              .submit(
+                  () ->
+                      renderDeployerJob(
+                          application,
+                          namespace,
+                          configPath,
+                          templateValues,
+                          deployerJobPath,
+                          deploymentId,
+                          expiresAt));
+    } catch (RejectedExecutionException e) {
+      return Futures.immediateFailedFuture(
+          Status.RESOURCE_EXHAUSTED
+              .withDescription("Too many deployments in progress in namespace " + namespace)
+              .asRuntimeException());
+    }
+
+    // Create deployer job and take its unique id from the created object.
+    ListenableFuture<V1Job> createdJob =
+        Futures.transformAsync(
+            deployerJob,
+            v1Job -> {
+              DeploymentStageEvent event =
+                  DeploymentStageEvent.begin(
+                          DeploymentStageEvent.DEPLOYER_JOB_CREATE, deploymentId, application)
+                      .object("V1Job", v1Job.getMetadata().getName());
+              ListenableFuture<V1Job> job = createJobAsync(namespace, v1Job);
+              job.addListener(event::commit, directExecutor());
+              return job;
+            },
+            directExecutor());
+    return Futures.transform(
+        createdJob,
+        job -> {
+          String jobId = job.getMetadata().getUid();
+          System.out.println(
+              "Application "
+                  + application
+                  + "'s unique id is: "
+                  + jobId
+                  + ", deployment id: "
+                  + deploymentId);
+          return CreateDeploymentResponse.newBuilder()
+              .setJobId(jobId)
+              .setNamespace(namespace)
+              .setDeploymentId(deploymentId)
+              .build();
+        },
+        directExecutor());
+  }
+
+  /** Renders the deployer job of the deployment, attributing the stage events of rendering to it. */
+  @SuppressWarnings("try") // The scope is only entered and closed.
+  private V1Job renderDeployerJob(
+      String application,
+      String namespace,
+      String configPath,
+      ImmutableSortedMap<String, String> templateValues,
+      String deployerJobPath,
+      String deploymentId,
+      long expiresAt)
+      throws IOException, TemplateException {
+    try (DeploymentStageEvent.Scope scope = DeploymentStageEvent.enter(deploymentId, application)) {
+      DeploymentStageEvent event =
+          DeploymentStageEvent.begin(DeploymentStageEvent.DEPLOYER_JOB_RENDER);
+      try {
+        return forDeployment(
+            loadDeployerJob(manifestCache, application, namespace, configPath, deployerJobPath),
+            deploymentId,
+            expiresAt,
+            templateValues);
+      } finally {
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * Follows a created deployment through the namespace's deployment watch and passes its progress
+   * to the sink, starting with JOB_CREATED. The returned future completes once COMPLETED or FAILED
+   * has been passed, and fails with DEADLINE_EXCEEDED after the server's maximum wait. Cancelling
+   * it stops following the deployment.
+   */
+  public ListenableFuture<Void> followDeployment(
+      CreateDeploymentResponse response, Consumer<DeploymentProgress> sink) {
+    System.out.println(
+        "Following progress of deployment "
+            + response.getDeploymentId()
+            + " of job: "
+            + response.getJobId());
+    DeploymentProgressTracker tracker =
+        new DeploymentProgressTracker(response, sink, waitTimeoutExecutor, PROGRESS_SETTLE_MILLIS);
+    tracker.start();
+    DeploymentWatch.Subscription subscription =
+        shardFor(response.getNamespace(), "")
+            .getDeploymentWatch()
+            .subscribe(response.getDeploymentId(), tracker);
+    // Fails through the tracker, so the failure is never passed on while it sends progress.
+    ScheduledFuture<?> timeout =
+        waitTimeoutExecutor.schedule(
+            () ->
+                tracker.fail(
+                    Status.DEADLINE_EXCEEDED
+                        .withDescription(
+                            "Deployment "
+                                + response.getDeploymentId()
+                                + " did not complete within "
+                                + maxWaitSeconds
+                                + " seconds.")
+                        .asRuntimeException()),
+            maxWaitSeconds,
+            TimeUnit.SECONDS);
+    tracker.addListener(
+        () -> {
+          subscription.close();
+          timeout.cancel(false);
+        },
+        directExecutor());
+    return tracker;
+  }
+
+  /**
+   * Returns a copy of the rendered deployer job named and labelled for the deployment, which also
+   * passes the deployment to the deployer so it labels every resource it creates. The rendered job
+   * stays free of per-deployment values, so it can be served from the manifest cache.
+   */
+  static V1Job forDeployment(
+      V1Job deployerJob,
+      String deploymentId,
+      long expiresAt,
+      ImmutableSortedMap<String, String> templateValues) {
+    V1Job job = withTemplateValues(deployerJob, templateValues);
+    job.getMetadata()
+        .name(job.getMetadata().getName() + "-" + deploymentId)
+        .putLabelsItem(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL, deploymentId)
+        .putLabelsItem(KubeJavaClientUtil.EXPIRES_AT_LABEL, Long.toString(expiresAt));
+    // Labels the deployer pod too, so its progress is followed by the same watch.
+    V1PodTemplateSpec podTemplate = job.getSpec().getTemplate();
+    if (podTemplate.getMetadata() == null) {
+      podTemplate.setMetadata(new V1ObjectMeta());
+    }
+    podTemplate.getMetadata().putLabelsItem(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL, deploymentId);
+    for (V1Container container : job.getSpec().getTemplate().getSpec().getContainers()) {
+      container
+          .addArgsItem("--deploymentId")
+          .addArgsItem(deploymentId)
+          .addArgsItem("--expiresAt")
+          .addArgsItem(Long.toString(expiresAt));
+    }
+    return job;
+  }
+
+  /**
+   * Returns a copy of the rendered deployer job which passes the template data to the deployer as
+   * one --templateValue argument per key, so it is not serialized to JSON and parsed again. The
+   * copy is made through a JSON tree rather than by writing and parsing YAML text.
+   */
+  static V1Job withTemplateValues(V1Job deployerJob, Map<String, String> templateValues) {
+    V1Job job = MODEL_GSON.fromJson(MODEL_GSON.toJsonTree(deployerJob), V1Job.class);
+    for (V1Container container : job.getSpec().getTemplate().getSpec().getContainers()) {
+      templateValues.forEach(
+          (key, value) -> container.addArgsItem("--templateValue").addArgsItem(key + "=" + value));
+    }
+    return job;
+  }
+
+  /**
+   * Returns the template data of the request as a sorted map, so requests differing only in JSON
+   * formatting or key order are identical. The template_values map is used if it is not empty,
+   * and the template_data JSON otherwise, which is parsed here once.
+   */
+  private static ImmutableSortedMap<String, String> templateValuesOf(
+      CreateDeploymentRequest request) {
+    if (request.getTemplateValuesCount() > 0) {
+      return ImmutableSortedMap.copyOf(request.getTemplateValuesMap());
+    }
+    try {
+      return parseTemplateValues(request.getTemplateData());
+    } catch (JsonParseException e) {
+      throw Status.INVALID_ARGUMENT
+          .withDescription("template_data is not a JSON object: " + e.getMessage())
+          .asRuntimeException();
+    }
+  }
+
+  /**
+   * Returns the template data of the JSON object as a sorted map, leaving out null values. The JSON
+   * may be wrapped in double quotes, as clients quote it for the deployer job YAML.
+   */
+  static ImmutableSortedMap<String, String> parseTemplateValues(String templateData) {
+    String json = templateData.trim();
+    if (json.length() >= 2 && json.startsWith("\"") && json.endsWith("\"")) {
+      json = json.substring(1, json.length() - 1);
+    }
+    Map<String, String> templateDataMap = TemplateDataUtil.parseTemplateDataJson(json);
+    return templateDataMap == null
+        ? ImmutableSortedMap.of()
+        : ImmutableSortedMap.copyOf(Maps.filterValues(templateDataMap, Objects::nonNull));
+  }
 
+  /**
+   * Renders the deployer job that deploys the application into the namespace, or takes it from the
+   * cache if it was rendered with the same template and data before.
+   */
+  static V1Job loadDeployerJob(
+      RenderedManifestCache manifestCache,
+      String application,
+      String namespace,
+      String configPath,
+      String deployerJobPath)
+      throws IOException, TemplateException {
     File configFile = new File(deployerJobPath);
     // Replace template data in deployer yaml file.
     ImmutableMap<String, String> templateDataMap =
-        ImmutableMap.of("app", application, "configPath", configPath, "templateData", templateData);
-    String resourceConfig = FreeMarkerUtil.replaceTemplates(templateDataMap, configFile);
-
-    // Load deployer job yaml file.
-    Yaml.addModelMap("v1", "Job", V1Job.class);
-    V1Job v1Job = (V1Job) Yaml.load(resourceConfig);
+        ImmutableMap.of("app", application, "namespace", namespace, "configPath", configPath);
+    V1Job deployerJob =
+        (V1Job) Iterables.getOnlyElement(manifestCache.render(templateDataMap, configFile, false));
     System.out.println("Yaml Loaded.");
+    return deployerJob;
+  }
 
-    // Create deployer job.
-    batchV1Api.createNamespacedJob("default", v1Job, null, null, null);
-    System.out.println("Created Job");
+  /**
+   * Creates a batch of deployments with at most maxBatchInFlight of them in progress at a time.
+   * Each item gets its own result, so a failing or slow item does not affect the others. Batches of
+   * more than maxBatchSize items are rejected with INVALID_ARGUMENT.
+   */
+  public ListenableFuture<ImmutableList<CreateDeploymentResult>> createDeployments(
+      List<CreateDeploymentRequest> requests) {
+    System.out.println(
+        "[GRPC REQUEST: CreateDeployments] Creating " + requests.size() + " deployments.");
+    if (requests.size() > maxBatchSize) {
+      return Futures.immediateFailedFuture(
+          Status.INVALID_ARGUMENT
+              .withDescription(
+                  "A batch holds at most " + maxBatchSize + " deployments, got " + requests.size())
+              .asRuntimeException());
+    }
 
-    // Get Unique Id of certain application.
-    V1JobList v1JobList =
-        batchV1Api.listNamespacedJob(
-            "default", null, null, null, null, null, null, null, null, null);
+    CreateDeploymentResult[] results = new CreateDeploymentResult[requests.size()];
+    AtomicInteger nextIndex = new AtomicInteger();
+    List<ListenableFuture<Void>> lanes = new ArrayList<>();
+    for (int i = 0; i < Math.min(maxBatchInFlight, requests.size()); i++) {
+      lanes.add(createNextDeployment(requests, results, nextIndex));
+    }
+    return Futures.transform(
+        Futures.allAsList(lanes), unused -> ImmutableList.copyOf(results), directExecutor());
+  }
 
-    for (V1Job job : v1JobList.getItems()) {
-      if (job.getMetadata().getName().equals(application)) {
-        jobId = job.getMetadata().getUid();
-        System.out.println("Application " + application + "'s unique id is: " + jobId);
-        break;
+  /**
+   * Creates the pending deployments of the batch one after another. Items which complete at once,
+   * such as ones failing validation, are taken in a loop, so a long run of them does not grow the
+   * stack; the lane only continues from a callback once an item is actually in progress.
+   */
+  private ListenableFuture<Void> createNextDeployment(
+      List<CreateDeploymentRequest> requests,
+      CreateDeploymentResult[] results,
+      AtomicInteger nextIndex) {
+    while (true) {
+      int index = nextIndex.getAndIncrement();
+      if (index >= requests.size()) {
+        return Futures.immediateFuture(null);
+      }
+      ListenableFuture<CreateDeploymentResult> result = createResult(requests.get(index));
+      if (result.isDone()) {
+        results[index] = Futures.getUnchecked(result);
+        continue;
       }
+      return Futures.transformAsync(
+          result,
+          createdResult -> {
+            results[index] = createdResult;
+            return createNextDeployment(requests, results, nextIndex);
+          },
+          directExecutor());
     }
+  }
 
-    return jobId;
+  // Creates one deployment of a batch; failures become the error of its result.
+  private ListenableFuture<CreateDeploymentResult> createResult(CreateDeploymentRequest request) {
+    CreateDeploymentResult.Builder resultBuilder =
+        CreateDeploymentResult.newBuilder().setApplication(request.getApplication());
+    return Futures.catching(
+        Futures.transform(
+            createDeployment(request),
+            response ->
+                resultBuilder
+                    .setJobId(response.getJobId())
+                    .setNamespace(response.getNamespace())
+                    .build(),
+            directExecutor()),
+        Throwable.class,
+        t -> resultBuilder.setError(String.valueOf(t)).build(),
+        directExecutor());
   }
 
-  public Iterable<String> listApplications() throws ApiException {
+  private ListenableFuture<V1Job> createJobAsync(String namespace, V1Job v1Job)
+      throws ApiException {
+    ApiCallbackFuture<V1Job> createdJob = new ApiCallbackFuture<>();
+    batchV1Api.createNamespacedJobAsync(namespace, v1Job, null, null, null, createdJob);
+    return createdJob;
+  }
+
+  public ListApplicationsResponse listApplications(ListApplicationsRequest request) {
     System.out.println("[GRPC REQUEST: ListApplications] Listing all applications.");
 
-    CoreV1Api coreV1Api = new CoreV1Api();
+    return listApplications(
+        shardsFor(request.getNamespace()).stream()
+            .map(NamespaceShard::getServiceCache)
+            .collect(toImmutableList()),
+        request);
+  }
+
+  /**
+   * Lists one page of the applications running in the informer caches of the requested namespaces.
+   * Pages are ordered on namespace/name keys and the page token holds the last key, so applications
+   * of the same name in different namespaces are each listed once.
+   */
+  static ListApplicationsResponse listApplications(
+      List<ServiceCache> serviceCaches, ListApplicationsRequest request) {
+    if (request.getPageSize() < 0) {
+      throw Status.INVALID_ARGUMENT
+          .withDescription("page_size must not be negative.")
+          .asRuntimeException();
+    }
+    LabelSelector labelSelector;
+    String startAfter;
+    try {
+      labelSelector = LabelSelector.parse(request.getLabelSelector());
+      startAfter = new String(BaseEncoding.base64Url().decode(request.getPageToken()), UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException();
+    }
+    if (!startAfter.isEmpty() && startAfter.indexOf('/') < 0) {
+      throw Status.INVALID_ARGUMENT
+          .withDescription("Invalid page token: " + request.getPageToken())
+          .asRuntimeException();
+    }
 
-    // List all running services.
-    V1ServiceList v1ServiceList =
-        coreV1Api.listNamespacedService(
-            "default", null, null, null, null, null, null, null, null, null);
-    ImmutableList<String> applications =
-        v1ServiceList.getItems().stream()
-            .map(v1Service -> v1Service.getMetadata().getName())
+    // One extra key is fetched to tell whether another page follows.
+    long limit = request.getPageSize() == 0 ? Long.MAX_VALUE : request.getPageSize() + 1L;
+    ImmutableList<String> keys =
+        serviceCaches.stream()
+            .flatMap(
+                serviceCache -> serviceCache.listKeys(labelSelector, startAfter, limit).stream())
+            .sorted()
+            .limit(limit)
             .collect(toImmutableList());
 
+    ListApplicationsResponse.Builder responseBuilder = ListApplicationsResponse.newBuilder();
+    if (request.getPageSize() > 0 && keys.size() > request.getPageSize()) {
+      keys = keys.subList(0, request.getPageSize());
+      String lastKey = keys.get(keys.size() - 1);
+      responseBuilder.setNextPageToken(BaseEncoding.base64Url().encode(lastKey.getBytes(UTF_8)));
+    }
+    ImmutableList<String> applications =
+        keys.stream().map(key -> key.substring(key.indexOf('/') + 1)).collect(toImmutableList());
+
     System.out.println("Applications list: " + applications);
 
-    return applications;
+    return responseBuilder.addAllApplications(applications).build();
   }
 
-  public ServiceEndpoint getApplication(String application) throws ApiException {
-    // Set default ip and port.
-    ServiceEndpoint.Builder serviceEndpointBuilder = ServiceEndpoint.newBuilder();
+  /**
+   * Deletes the deployer job and every resource of the deployment it created, on the namespace's
+   * deployment executor.
+   */
+  public ListenableFuture<DeleteDeploymentResponse> deleteDeployment(
+      DeleteDeploymentRequest request) {
+    String jobId = request.getJobId();
+    System.out.println("[GRPC REQUEST: DeleteDeployment] Deleting deployment of job: " + jobId);
+
+    V1Job job;
+    NamespaceShard shard;
+    try {
+      shard =
+          shardsFor(request.getNamespace()).stream()
+              .filter(candidate -> candidate.getJobStatusCache().getByUid(jobId).isPresent())
+              .findFirst()
+              .orElseThrow(
+                  () ->
+                      Status.NOT_FOUND
+                          .withDescription("No deployer job found with id " + jobId)
+                          .asRuntimeException());
+      job = shard.getJobStatusCache().getByUid(jobId).get();
+    } catch (StatusRuntimeException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+
+    Map<String, String> labels = job.getMetadata().getLabels();
+    String deploymentId =
+        labels == null ? null : labels.get(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL);
+    if (deploymentId == null) {
+      return Futures.immediateFailedFuture(
+          Status.FAILED_PRECONDITION
+              .withDescription("Deployer job " + jobId + " carries no deployment id.")
+              .asRuntimeException());
+    }
 
+    try {
+      return shard
+          .getDeploymentExecutor()
+          .submit(
+              () -> {
+                reaper.deleteDeployments(shard.getNamespace(), ImmutableList.of(deploymentId));
+                return DeleteDeploymentResponse.getDefaultInstance();
+              });
+    } catch (RejectedExecutionException e) {
+      return Futures.immediateFailedFuture(
+          Status.RESOURCE_EXHAUSTED
+              .withDescription(
+                  "Too many deployments in progress in namespace " + shard.getNamespace())
+              .asRuntimeException());
+    }
+  }
+
+  public ServiceEndpoint getApplication(String namespace, String application) {
     System.out.println(
         "[GRPC REQUEST: GetApplication] Getting ip and port information of : " + application);
 
-    // Get services list.
-    CoreV1Api coreV1Api = new CoreV1Api();
-    V1ServiceList v1ServiceList =
-        coreV1Api.listNamespacedService(
-            "default", null, null, null, null, null, null, null, null, null);
-
-    for (V1Service svc : v1ServiceList.getItems()) {
-      // Find the required service.
-      if (svc.getMetadata().getName().equals(application)) {
-
-        // Get service's ip.
-        try {
-          List<V1LoadBalancerIngress> svcIP = svc.getStatus().getLoadBalancer().getIngress();
-          for (V1LoadBalancerIngress ip : svcIP) {
-            System.out.println("Application " + application + "'s IP: " + ip.getIp());
-            serviceEndpointBuilder.setIp(ip.getIp());
-          }
-        } catch (NullPointerException e) {
-          System.out.println("Caught null pointer exception, no IP address found.");
-          throw e;
+    // Find the required service in the informer cache of its namespace. Fields the service does
+    // not have yet, such as an ingress IP that is still being assigned, are left empty.
+    ServiceEndpoint serviceEndpoint =
+        shardFor(namespace, application)
+            .getServiceCache()
+            .get(application)
+            .map(TsunamiTestbedUtil::endpointOf)
+            .orElse(ServiceEndpoint.getDefaultInstance());
+    System.out.println(
+        "Application "
+            + application
+            + "'s IP: "
+            + serviceEndpoint.getIp()
+            + " port: "
+            + serviceEndpoint.getPort());
+    return serviceEndpoint;
+  }
+
+  /**
+   * Returns the endpoint of the application once its Service has an ingress IP and a port. The wait
+   * is served by the namespace's Service watch, so waiting callers cost no API calls. It fails with
+   * DEADLINE_EXCEEDED after timeoutSeconds, or the server's maximum wait if that is shorter or
+   * timeoutSeconds is 0.
+   */
+  public ListenableFuture<ServiceEndpoint> waitForApplicationReady(
+      String namespace, String application, long timeoutSeconds) {
+    System.out.println(
+        "[GRPC REQUEST: WaitForApplicationReady] Waiting for endpoint of : " + application);
+
+    ServiceCache serviceCache;
+    try {
+      serviceCache = shardFor(namespace, application).getServiceCache();
+    } catch (StatusRuntimeException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    long waitSeconds =
+        timeoutSeconds > 0 ? Math.min(timeoutSeconds, maxWaitSeconds) : maxWaitSeconds;
+
+    ListenableFuture<ServiceEndpoint> endpoint =
+        Futures.transform(
+            serviceCache.await(application, TsunamiTestbedUtil::isReady),
+            TsunamiTestbedUtil::endpointOf,
+            directExecutor());
+    return Futures.catchingAsync(
+        Futures.withTimeout(endpoint, waitSeconds, TimeUnit.SECONDS, waitTimeoutExecutor),
+        TimeoutException.class,
+        e ->
+            Futures.immediateFailedFuture(
+                Status.DEADLINE_EXCEEDED
+                    .withDescription(
+                        "Application "
+                            + application
+                            + " got no ingress IP and port within "
+                            + waitSeconds
+                            + " seconds.")
+                    .asRuntimeException()),
+        directExecutor());
+  }
+
+  private static boolean isReady(V1Service service) {
+    ServiceEndpoint endpoint = endpointOf(service);
+    return !endpoint.getIp().isEmpty() && !endpoint.getPort().isEmpty();
+  }
+
+  /** Returns the last ingress IP and the last port of the service, each if it has one. */
+  static ServiceEndpoint endpointOf(V1Service service) {
+    ServiceEndpoint.Builder serviceEndpointBuilder = ServiceEndpoint.newBuilder();
+    if (service.getStatus() != null
+        && service.getStatus().getLoadBalancer() != null
+        && service.getStatus().getLoadBalancer().getIngress() != null) {
+      for (V1LoadBalancerIngress ingress : service.getStatus().getLoadBalancer().getIngress()) {
+        if (ingress.getIp() != null) {
+          serviceEndpointBuilder.setIp(ingress.getIp());
         }
+      }
+    }
+    if (service.getSpec() != null && service.getSpec().getPorts() != null) {
+      for (V1ServicePort port : service.getSpec().getPorts()) {
+        serviceEndpointBuilder.setPort(port.getPort().toString());
+      }
+    }
+    return serviceEndpointBuilder.build();
+  }
+
+  public DeploymentStatus getDeploymentStatus(String namespace, String jobId) {
+    System.out.println("[GRPC REQUEST: GetDeploymentStatus] Getting status of job: " + jobId);
+
+    // Find the required job in the informer caches of the requested namespaces.
+    V1Job job =
+        shardsFor(namespace).stream()
+            .map(shard -> shard.getJobStatusCache().getByUid(jobId))
+            .flatMap(Streams::stream)
+            .findFirst()
+            .orElseThrow(
+                () ->
+                    Status.NOT_FOUND
+                        .withDescription("No deployer job found with id " + jobId)
+                        .asRuntimeException());
+
+    DeploymentStatus.Builder deploymentStatusBuilder =
+        DeploymentStatus.newBuilder()
+            .setJobId(jobId)
+            .setJobName(job.getMetadata().getName())
+            .setNamespace(job.getMetadata().getNamespace())
+            .setState(DeploymentStatus.State.PENDING);
+
+    V1JobStatus jobStatus = job.getStatus();
+    if (jobStatus == null) {
+      return deploymentStatusBuilder.build();
+    }
+    if (jobStatus.getActive() != null) {
+      deploymentStatusBuilder.setActive(jobStatus.getActive());
+    }
+    if (jobStatus.getSucceeded() != null) {
+      deploymentStatusBuilder.setSucceeded(jobStatus.getSucceeded());
+    }
+    if (jobStatus.getFailed() != null) {
+      deploymentStatusBuilder.setFailed(jobStatus.getFailed());
+    }
+    if (jobStatus.getStartTime() != null) {
+      deploymentStatusBuilder.setStartTime(toTimestamp(jobStatus.getStartTime()));
+    }
+    if (jobStatus.getCompletionTime() != null) {
+      deploymentStatusBuilder.setCompletionTime(toTimestamp(jobStatus.getCompletionTime()));
+    }
+    deploymentStatusBuilder.setState(toState(jobStatus));
 
-        // Get service's port.
-        List<V1ServicePort> ports = svc.getSpec().getPorts();
-        for (V1ServicePort port : ports) {
-          System.out.println("Application " + application + "'s port: " + port.getPort());
-          serviceEndpointBuilder.setPort(port.getPort().toString());
+    return deploymentStatusBuilder.build();
+  }
+
+  private static DeploymentStatus.State toState(V1JobStatus jobStatus) {
+    // A finished job carries a "Complete" or "Failed" condition set to "True".
+    if (jobStatus.getConditions() != null) {
+      for (V1JobCondition condition : jobStatus.getConditions()) {
+        if (!"True".equals(condition.getStatus())) {
+          continue;
+        }
+        if ("Complete".equals(condition.getType())) {
+          return DeploymentStatus.State.SUCCEEDED;
+        }
+        if ("Failed".equals(condition.getType())) {
+          return DeploymentStatus.State.FAILED;
         }
       }
     }
+    if (jobStatus.getActive() != null && jobStatus.getActive() > 0) {
+      return DeploymentStatus.State.RUNNING;
+    }
+    return DeploymentStatus.State.PENDING;
+  }
 
-    return serviceEndpointBuilder.build();
+  private static Timestamp toTimestamp(DateTime dateTime) {
+    long millis = dateTime.getMillis();
+    return Timestamp.newBuilder()
+        .setSeconds(Math.floorDiv(millis, 1000L))
+        .setNanos((int) Math.floorMod(millis, 1000L) * 1_000_000)
+        .build();
   }
 }
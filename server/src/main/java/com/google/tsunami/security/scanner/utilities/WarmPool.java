@@ -0,0 +1,528 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.protobuf.Timestamp;
+import freemarker.template.TemplateException;
+import io.grpc.Status;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.BatchV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import tsunami.security.scanner.utilities.KubeJavaClientUtil;
+import tsunami.security.scanner.utilities.RenderedManifestCache;
+
+/**
+ * A pool of application instances that are deployed ahead of time, so a scan can lease a ready
+ * instance instead of waiting minutes for a deployment.
+ *
+ * <p>Application configs use fixed object names, so every instance is deployed into a namespace
+ * of its own. An instance is ready once its deployer Job succeeded and every workload and
+ * LoadBalancer endpoint it created is ready. A background task keeps the configured number of ready
+ * instances per application and template data, and tears down released instances rather than
+ * handing out a target that an earlier scan may have changed.
+ *
+ * <p>A lease is recorded on the labels of its namespace together with its expiry, so a restarted
+ * server keeps the instances still leased to running scans. Leases that are not released in time,
+ * such as those of a crashed scanner, are reclaimed by the refill task.
+ */
+final class WarmPool {
+
+  private static final String MANAGED_BY_LABEL = "managed-by";
+  private static final String MANAGED_BY_VALUE = "tsunami-testbed-warm-pool";
+  private static final String LEASE_ID_LABEL = "tsunami-testbed/lease-id";
+  // Unix time in seconds after which the lease is reclaimed.
+  private static final String LEASE_EXPIRES_AT_LABEL = "tsunami-testbed/lease-expires-at";
+  private static final Duration PROVISION_TIMEOUT = Duration.ofMinutes(15);
+
+  /**
+   * Selects the Services of warm pool instances, whose deployments are the only ones never reaped.
+   */
+  static final String SERVICE_LABEL_SELECTOR = KubeJavaClientUtil.EXPIRES_AT_LABEL + "=0";
+
+  /** One entry of the warm pool config file, which holds a JSON array of them. */
+  static final class Spec {
+    String application = "";
+    String configPath = "";
+    String templateData = "";
+    String deployerJobPath = "";
+    int size;
+  }
+
+  /** Identifies the instances that can serve an acquire request. */
+  private static final class Key {
+    private final String application;
+    private final ImmutableSortedMap<String, String> templateData;
+
+    private Key(String application, String templateData) {
+      this.application = application;
+      // Compare parsed template data, so the JSON formatting of a request does not matter.
+      this.templateData = TsunamiTestbedUtil.parseTemplateValues(templateData);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return application.equals(other.application) && templateData.equals(other.templateData);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(application, templateData);
+    }
+  }
+
+  private static final class Instance {
+    private final Key key;
+    private final String namespace;
+    private final long provisionStartNanos = System.nanoTime();
+    // Follows the deployer Job and the objects it creates, fed from the refill task.
+    private final DeploymentProgressTracker tracker;
+    // Type of the last progress message, which is COMPLETED or FAILED once the tracker is done.
+    private volatile DeploymentProgress.Type outcome;
+    private ServiceEndpoint serviceEndpoint = ServiceEndpoint.getDefaultInstance();
+
+    private Instance(
+        Key key,
+        String namespace,
+        String jobId,
+        String deploymentId,
+        ScheduledExecutorService settleExecutor) {
+      this.key = key;
+      this.namespace = namespace;
+      this.tracker =
+          new DeploymentProgressTracker(
+              CreateDeploymentResponse.newBuilder()
+                  .setJobId(jobId)
+                  .setNamespace(namespace)
+                  .setDeploymentId(deploymentId)
+                  .build(),
+              progress -> outcome = progress.getType(),
+              settleExecutor,
+              0);
+    }
+  }
+
+  /** A leased instance, torn down on release or once it expires. */
+  private static final class Lease {
+    private final String namespace;
+    private final long expiresAt;
+
+    private Lease(String namespace, long expiresAt) {
+      this.namespace = namespace;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final CoreV1Api coreV1Api;
+  private final AppsV1Api appsV1Api;
+  private final BatchV1Api batchV1Api;
+  // Services of the pool namespaces, which are labelled with the deployment of their instance.
+  private final ServiceCache serviceCache;
+  private final RenderedManifestCache manifestCache;
+  private final ImmutableMap<Key, Spec> specs;
+  private final long refillIntervalSeconds;
+  private final long defaultLeaseSeconds;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("warm-pool-%d").setDaemon(true).build());
+
+  // Guarded by this.
+  private final ListMultimap<Key, Instance> provisioning = ArrayListMultimap.create();
+  private final ListMultimap<Key, Instance> ready = ArrayListMultimap.create();
+  private final Map<String, Lease> leases = new HashMap<>();
+
+  WarmPool(
+      List<Spec> specs,
+      CoreV1Api coreV1Api,
+      AppsV1Api appsV1Api,
+      BatchV1Api batchV1Api,
+      ServiceCache serviceCache,
+      RenderedManifestCache manifestCache,
+      long refillIntervalSeconds,
+      long defaultLeaseSeconds) {
+    this.specs = Maps.uniqueIndex(specs, spec -> new Key(spec.application, spec.templateData));
+    this.coreV1Api = coreV1Api;
+    this.appsV1Api = appsV1Api;
+    this.batchV1Api = batchV1Api;
+    this.serviceCache = serviceCache;
+    this.manifestCache = manifestCache;
+    this.refillIntervalSeconds = refillIntervalSeconds;
+    this.defaultLeaseSeconds = defaultLeaseSeconds;
+  }
+
+  /** Reads the pool specs from a JSON config file. */
+  static ImmutableList<Spec> loadSpecs(File configFile) throws IOException {
+    try (Reader reader = Files.newBufferedReader(configFile.toPath(), UTF_8)) {
+      return ImmutableList.copyOf(new Gson().fromJson(reader, Spec[].class));
+    }
+  }
+
+  /**
+   * Tears down instances left over by an earlier server, except those still leased, and starts
+   * filling the pool in the background. Does nothing if no instances are configured.
+   */
+  void start() {
+    if (specs.isEmpty()) {
+      return;
+    }
+    try {
+      V1NamespaceList leftovers =
+          coreV1Api.listNamespace(
+              null,
+              null,
+              null,
+              null,
+              MANAGED_BY_LABEL + "=" + MANAGED_BY_VALUE,
+              null,
+              null,
+              null,
+              null);
+      long now = Instant.now().getEpochSecond();
+      for (V1Namespace namespace : leftovers.getItems()) {
+        String name = namespace.getMetadata().getName();
+        Map<String, String> labels = namespace.getMetadata().getLabels();
+        String leaseId = labels.get(LEASE_ID_LABEL);
+        long expiresAt = parseExpiresAt(labels.get(LEASE_EXPIRES_AT_LABEL));
+        if (leaseId != null && expiresAt > now) {
+          // Still leased to a scan; it is released or reclaimed as if this server leased it.
+          synchronized (this) {
+            leases.put(leaseId, new Lease(name, expiresAt));
+          }
+          System.out.println("Keeping leased warm pool namespace " + name);
+        } else {
+          deleteNamespace(name);
+        }
+      }
+    } catch (ApiException e) {
+      System.out.println("Failed to list warm pool namespaces: " + e.getResponseBody());
+    }
+    executor.scheduleWithFixedDelay(this::refill, 0, refillIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Leases a ready instance of the application for leaseSeconds, or the default lease if it is 0.
+   * Fails if no instance is ready right now.
+   */
+  AcquireApplicationResponse acquire(String application, String templateData, long leaseSeconds) {
+    System.out.println("[GRPC REQUEST: AcquireApplication] Leasing an instance of: " + application);
+
+    Key key;
+    try {
+      key = new Key(application, templateData);
+    } catch (JsonSyntaxException e) {
+      throw Status.INVALID_ARGUMENT
+          .withDescription("Template data is not valid JSON.")
+          .withCause(e)
+          .asRuntimeException();
+    }
+    if (!specs.containsKey(key)) {
+      throw Status.FAILED_PRECONDITION
+          .withDescription(
+              "No warm pool is configured for " + application + " and its template data.")
+          .asRuntimeException();
+    }
+
+    String leaseId = UUID.randomUUID().toString();
+    long expiresAt =
+        Instant.now().getEpochSecond() + (leaseSeconds > 0 ? leaseSeconds : defaultLeaseSeconds);
+    Instance instance;
+    synchronized (this) {
+      List<Instance> readyInstances = ready.get(key);
+      if (readyInstances.isEmpty()) {
+        throw Status.UNAVAILABLE
+            .withDescription("No ready instance of " + application + ", try again later.")
+            .asRuntimeException();
+      }
+      instance = readyInstances.remove(0);
+    }
+    try {
+      recordLease(instance.namespace, leaseId, expiresAt);
+    } catch (ApiException e) {
+      // Only hand out instances whose lease survives a restart of the server.
+      synchronized (this) {
+        ready.get(key).add(0, instance);
+      }
+      throw Status.UNAVAILABLE
+          .withDescription("Failed to record the lease of " + application + ", try again later.")
+          .asRuntimeException();
+    }
+    synchronized (this) {
+      leases.put(leaseId, new Lease(instance.namespace, expiresAt));
+    }
+    // Start replacing the leased instance right away.
+    executor.execute(this::refill);
+
+    System.out.println("Leased instance of " + application + " in namespace " + instance.namespace);
+    return AcquireApplicationResponse.newBuilder()
+        .setLeaseId(leaseId)
+        .setNamespace(instance.namespace)
+        .setServiceEndpoint(instance.serviceEndpoint)
+        .setLeaseExpireTime(Timestamp.newBuilder().setSeconds(expiresAt))
+        .build();
+  }
+
+  /** Labels the namespace with the lease, read back by a restarted server. */
+  private void recordLease(String namespace, String leaseId, long expiresAt) throws ApiException {
+    V1Namespace current = coreV1Api.readNamespace(namespace, null, null, null);
+    current
+        .getMetadata()
+        .putLabelsItem(LEASE_ID_LABEL, leaseId)
+        .putLabelsItem(LEASE_EXPIRES_AT_LABEL, Long.toString(expiresAt));
+    coreV1Api.replaceNamespace(namespace, current, null, null, null);
+  }
+
+  private static long parseExpiresAt(String expiresAt) {
+    try {
+      return expiresAt == null ? 0 : Long.parseLong(expiresAt);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /** Ends the lease and tears down its instance. The pool is refilled in the background. */
+  void release(String leaseId) {
+    System.out.println("[GRPC REQUEST: ReleaseApplication] Releasing lease: " + leaseId);
+
+    Lease lease;
+    synchronized (this) {
+      lease = leases.remove(leaseId);
+    }
+    if (lease == null) {
+      throw Status.NOT_FOUND
+          .withDescription("No lease found with id " + leaseId)
+          .asRuntimeException();
+    }
+    executor.execute(() -> deleteNamespace(lease.namespace));
+  }
+
+  /**
+   * Reclaims expired leases, promotes instances whose deployment is ready and provisions any
+   * missing instances.
+   */
+  void refill() {
+    try {
+      reclaimExpiredLeases();
+
+      ImmutableList<Instance> pending;
+      synchronized (this) {
+        pending = ImmutableList.copyOf(provisioning.values());
+      }
+      for (Instance instance : pending) {
+        checkProvisioning(instance);
+      }
+
+      for (Map.Entry<Key, Spec> entry : specs.entrySet()) {
+        int missing;
+        synchronized (this) {
+          missing =
+              entry.getValue().size
+                  - ready.get(entry.getKey()).size()
+                  - provisioning.get(entry.getKey()).size();
+        }
+        for (int i = 0; i < missing; i++) {
+          provision(entry.getKey(), entry.getValue());
+        }
+      }
+    } catch (RuntimeException e) {
+      // An exception would cancel the scheduled refills, so only log it.
+      System.out.println("Failed to refill warm pool: " + e);
+    }
+  }
+
+  private void reclaimExpiredLeases() {
+    long now = Instant.now().getEpochSecond();
+    List<Lease> expired = new ArrayList<>();
+    synchronized (this) {
+      for (Iterator<Lease> it = leases.values().iterator(); it.hasNext(); ) {
+        Lease lease = it.next();
+        if (lease.expiresAt <= now) {
+          expired.add(lease);
+          it.remove();
+        }
+      }
+    }
+    for (Lease lease : expired) {
+      System.out.println(
+          "Lease of warm pool namespace " + lease.namespace + " expired, reclaiming it.");
+      deleteNamespace(lease.namespace);
+    }
+  }
+
+  /**
+   * Feeds the objects of the instance's namespace to its tracker, and promotes the instance once
+   * the tracker completed and its Service has an endpoint. Pool namespaces are not followed by the
+   * informers of the served namespaces, so their workloads are listed on every check, while their
+   * Services come from the pool's own cache.
+   */
+  private void checkProvisioning(Instance instance) {
+    try {
+      String namespace = instance.namespace;
+      List<Object> objects = new ArrayList<>();
+      objects.addAll(
+          batchV1Api
+              .listNamespacedJob(namespace, null, null, null, null, null, null, null, null, null)
+              .getItems());
+      objects.addAll(
+          coreV1Api
+              .listNamespacedPod(namespace, null, null, null, null, null, null, null, null, null)
+              .getItems());
+      objects.addAll(
+          appsV1Api
+              .listNamespacedDeployment(
+                  namespace, null, null, null, null, null, null, null, null, null)
+              .getItems());
+      for (V1Service service : serviceCache.listInNamespace(namespace)) {
+        if (instance.key.application.equals(service.getMetadata().getName())) {
+          instance.serviceEndpoint = TsunamiTestbedUtil.endpointOf(service);
+        }
+        objects.add(service);
+      }
+      objects.forEach(instance.tracker);
+    } catch (ApiException e) {
+      System.out.println(
+          "Failed to list objects in namespace " + instance.namespace + ": " + e.getResponseBody());
+    }
+
+    if (instance.outcome == DeploymentProgress.Type.COMPLETED
+        && !instance.serviceEndpoint.getIp().isEmpty()
+        && !instance.serviceEndpoint.getPort().isEmpty()) {
+      synchronized (this) {
+        provisioning.remove(instance.key, instance);
+        ready.put(instance.key, instance);
+      }
+      System.out.println("Warm pool instance in namespace " + instance.namespace + " is ready.");
+    } else if (instance.outcome == DeploymentProgress.Type.FAILED) {
+      recycle(instance, "failed");
+    } else if (System.nanoTime() - instance.provisionStartNanos > PROVISION_TIMEOUT.toNanos()) {
+      recycle(instance, "timed out");
+    }
+  }
+
+  private void recycle(Instance instance, String reason) {
+    synchronized (this) {
+      provisioning.remove(instance.key, instance);
+    }
+    instance.tracker.cancel(false);
+    System.out.println(
+        "Warm pool instance in namespace " + instance.namespace + " " + reason + ", recycling it.");
+    deleteNamespace(instance.namespace);
+  }
+
+  private void provision(Key key, Spec spec) {
+    // Namespace names are DNS labels of at most 63 characters.
+    String application = spec.application.toLowerCase().replaceAll("[^a-z0-9-]", "-");
+    String namespace =
+        "pool-"
+            + application.substring(0, Math.min(application.length(), 49))
+            + "-"
+            + UUID.randomUUID().toString().substring(0, 8);
+    try {
+      coreV1Api.createNamespace(
+          new V1Namespace()
+              .metadata(
+                  new V1ObjectMeta()
+                      .name(namespace)
+                      .putLabelsItem(MANAGED_BY_LABEL, MANAGED_BY_VALUE)
+                      .putLabelsItem("app", spec.application)),
+          null,
+          null,
+          null);
+    } catch (ApiException e) {
+      System.out.println(
+          "Failed to create warm pool namespace " + namespace + ": " + e.getResponseBody());
+      return;
+    }
+
+    // Labels the instance's objects with a deployment of its own, never reaped, which selects its
+    // Services for the pool's cache.
+    String deploymentId = UUID.randomUUID().toString().replace("-", "");
+    V1Job createdJob;
+    try {
+      V1Job deployerJob =
+          TsunamiTestbedUtil.forDeployment(
+              TsunamiTestbedUtil.loadDeployerJob(
+                  manifestCache,
+                  spec.application,
+                  namespace,
+                  spec.configPath,
+                  spec.deployerJobPath),
+              deploymentId,
+              0,
+              key.templateData);
+      createdJob = batchV1Api.createNamespacedJob(namespace, deployerJob, null, null, null);
+    } catch (ApiException | IOException | TemplateException e) {
+      System.out.println("Failed to deploy warm pool instance of " + spec.application + ": " + e);
+      deleteNamespace(namespace);
+      return;
+    }
+
+    synchronized (this) {
+      provisioning.put(
+          key,
+          new Instance(key, namespace, createdJob.getMetadata().getUid(), deploymentId, executor));
+    }
+    System.out.println(
+        "Provisioning warm pool instance of " + spec.application + " in namespace " + namespace);
+  }
+
+  private void deleteNamespace(String namespace) {
+    try {
+      coreV1Api.deleteNamespace(namespace, null, null, null, null, "Background", null);
+    } catch (ApiException e) {
+      System.out.println("Failed to delete namespace " + namespace + ": " + e.getResponseBody());
+    } catch (JsonSyntaxException e) {
+      // The API server answers with the Namespace rather than a Status, which the generated
+      // client cannot parse. The deletion has been accepted at this point.
+    }
+  }
+}
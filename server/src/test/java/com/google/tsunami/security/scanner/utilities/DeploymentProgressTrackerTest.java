@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentSpec;
+import io.kubernetes.client.openapi.models.V1DeploymentStatus;
+import io.kubernetes.client.openapi.models.V1Job;
+import io.kubernetes.client.openapi.models.V1JobCondition;
+import io.kubernetes.client.openapi.models.V1JobStatus;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DeploymentProgressTrackerTest {
+
+  private static final String JOB_UID = "job-uid";
+  private static final long SETTLE_MILLIS = 10;
+  // Long enough for a scheduled completion to have run if one was scheduled.
+  private static final long QUIET_MILLIS = 200;
+
+  private final ScheduledExecutorService settleExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  private final List<DeploymentProgress> sent = new CopyOnWriteArrayList<>();
+  private final DeploymentProgressTracker tracker =
+      new DeploymentProgressTracker(
+          CreateDeploymentResponse.newBuilder()
+              .setJobId(JOB_UID)
+              .setNamespace("default")
+              .setDeploymentId("abc123")
+              .build(),
+          sent::add,
+          settleExecutor,
+          SETTLE_MILLIS);
+
+  @After
+  public void tearDown() {
+    settleExecutor.shutdownNow();
+  }
+
+  private static V1Job job(String conditionType) {
+    return new V1Job()
+        .metadata(new V1ObjectMeta().name("deployer").uid(JOB_UID))
+        .status(
+            new V1JobStatus()
+                .addConditionsItem(
+                    new V1JobCondition()
+                        .type(conditionType)
+                        .status("True")
+                        .reason("BackoffLimitExceeded")
+                        .message("")));
+  }
+
+  private static V1Deployment deployment(String name, int readyReplicas) {
+    return new V1Deployment()
+        .metadata(new V1ObjectMeta().name(name).generation(1L))
+        .spec(new V1DeploymentSpec().replicas(1))
+        .status(new V1DeploymentStatus().observedGeneration(1L).readyReplicas(readyReplicas));
+  }
+
+  private List<DeploymentProgress.Type> sentTypes() {
+    return sent.stream().map(DeploymentProgress::getType).collect(Collectors.toList());
+  }
+
+  @Test
+  public void accept_whenJobSucceededAndWorkloadReady_completes() throws Exception {
+    tracker.start();
+    tracker.accept(deployment("jupyter", 1));
+    tracker.accept(job("Complete"));
+
+    tracker.get(5, TimeUnit.SECONDS);
+
+    assertThat(sentTypes())
+        .containsExactly(
+            DeploymentProgress.Type.JOB_CREATED,
+            DeploymentProgress.Type.RESOURCE_CREATED,
+            DeploymentProgress.Type.WORKLOAD_READY,
+            DeploymentProgress.Type.COMPLETED)
+        .inOrder();
+  }
+
+  @Test
+  public void accept_whenWorkloadNotReady_waitsUntilItIs() throws Exception {
+    tracker.accept(job("Complete"));
+    tracker.accept(deployment("jupyter", 0));
+    Thread.sleep(QUIET_MILLIS);
+    assertThat(tracker.isDone()).isFalse();
+
+    tracker.accept(deployment("jupyter", 1));
+
+    tracker.get(5, TimeUnit.SECONDS);
+    assertThat(sentTypes()).contains(DeploymentProgress.Type.COMPLETED);
+  }
+
+  @Test
+  public void accept_whenNotReadyWorkloadDeleted_completes() throws Exception {
+    tracker.accept(job("Complete"));
+    tracker.accept(deployment("jupyter", 1));
+    tracker.accept(deployment("jupyter-old", 0));
+    Thread.sleep(QUIET_MILLIS);
+    assertThat(tracker.isDone()).isFalse();
+
+    tracker.accept(new DeploymentWatch.Deleted(deployment("jupyter-old", 0)));
+
+    tracker.get(5, TimeUnit.SECONDS);
+    assertThat(sentTypes()).contains(DeploymentProgress.Type.COMPLETED);
+  }
+
+  @Test
+  public void accept_whenJobFailed_sendsFailedAndCompletes() throws Exception {
+    tracker.start();
+    tracker.accept(deployment("jupyter", 0));
+    tracker.accept(job("Failed"));
+
+    assertThat(tracker.isDone()).isTrue();
+    assertThat(sentTypes()).contains(DeploymentProgress.Type.FAILED);
+    assertThat(sentTypes()).doesNotContain(DeploymentProgress.Type.COMPLETED);
+    assertThat(sent.get(sent.size() - 1).getMessage()).contains("BackoffLimitExceeded");
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LabelSelectorTest {
+
+  @Test
+  public void parse_whenEmpty_matchesEverything() {
+    LabelSelector selector = LabelSelector.parse(" ");
+
+    assertThat(selector.test(ImmutableMap.of())).isTrue();
+    assertThat(selector.test(ImmutableMap.of("app", "jupyter"))).isTrue();
+  }
+
+  @Test
+  public void parse_whenEquality_matchesValue() {
+    LabelSelector selector = LabelSelector.parse("app=jupyter, tier==web");
+
+    assertThat(selector.test(ImmutableMap.of("app", "jupyter", "tier", "web"))).isTrue();
+    assertThat(selector.test(ImmutableMap.of("app", "jupyter", "tier", "db"))).isFalse();
+    assertThat(selector.test(ImmutableMap.of("app", "jupyter"))).isFalse();
+  }
+
+  @Test
+  public void parse_whenInequality_matchesOtherValuesAndMissingKey() {
+    LabelSelector selector = LabelSelector.parse("tier!=db");
+
+    assertThat(selector.test(ImmutableMap.of("tier", "web"))).isTrue();
+    assertThat(selector.test(ImmutableMap.of())).isTrue();
+    assertThat(selector.test(ImmutableMap.of("tier", "db"))).isFalse();
+  }
+
+  @Test
+  public void parse_whenExistence_matchesPresentKey() {
+    LabelSelector selector = LabelSelector.parse("tsunami-testbed/managed");
+
+    assertThat(selector.test(ImmutableMap.of("tsunami-testbed/managed", ""))).isTrue();
+    assertThat(selector.test(ImmutableMap.of("app", "jupyter"))).isFalse();
+  }
+
+  @Test
+  public void parse_whenNegatedExistence_matchesMissingKey() {
+    LabelSelector selector = LabelSelector.parse("!canary");
+
+    assertThat(selector.test(ImmutableMap.of("app", "jupyter"))).isTrue();
+    assertThat(selector.test(ImmutableMap.of("canary", "true"))).isFalse();
+  }
+
+  @Test
+  public void parse_whenSetBased_throws() {
+    assertThrows(IllegalArgumentException.class, () -> LabelSelector.parse("tier in (db,web)"));
+    assertThrows(IllegalArgumentException.class, () -> LabelSelector.parse("tier notin (db)"));
+    assertThrows(IllegalArgumentException.class, () -> LabelSelector.parse("tier=(db)"));
+  }
+
+  @Test
+  public void parse_whenRequirementIsEmpty_throws() {
+    assertThrows(IllegalArgumentException.class, () -> LabelSelector.parse("app=jupyter,"));
+    assertThrows(IllegalArgumentException.class, () -> LabelSelector.parse("=jupyter"));
+  }
+}
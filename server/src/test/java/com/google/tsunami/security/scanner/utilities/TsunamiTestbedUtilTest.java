@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.kubernetes.client.custom.Quantity;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1Container;
+import io.kubernetes.client.openapi.models.V1Job;
+import io.kubernetes.client.openapi.models.V1JobSpec;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodTemplateSpec;
+import io.kubernetes.client.openapi.models.V1ResourceRequirements;
+import io.kubernetes.client.openapi.models.V1Service;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TsunamiTestbedUtilTest {
+
+  /** Returns a cache of the namespace holding Services of the given names, without a watch. */
+  private static ServiceCache serviceCache(String namespace, String... names) {
+    ApiClient apiClient = new ApiClient();
+    SharedInformerFactory informerFactory = new SharedInformerFactory(apiClient);
+    ServiceCache serviceCache =
+        new ServiceCache(informerFactory, new CoreV1Api(apiClient), namespace, "");
+    for (String name : names) {
+      informerFactory
+          .getExistingSharedIndexInformer(V1Service.class)
+          .getIndexer()
+          .add(new V1Service().metadata(new V1ObjectMeta().namespace(namespace).name(name)));
+    }
+    return serviceCache;
+  }
+
+  @Test
+  public void listApplications_whenPagingAcrossNamespaces_listsSameNameInEach() {
+    ImmutableList<ServiceCache> serviceCaches =
+        ImmutableList.of(
+            serviceCache("team-a", "jupyter", "wordpress"), serviceCache("team-b", "jupyter"));
+
+    ListApplicationsResponse first =
+        TsunamiTestbedUtil.listApplications(
+            serviceCaches, ListApplicationsRequest.newBuilder().setPageSize(1).build());
+    ListApplicationsResponse second =
+        TsunamiTestbedUtil.listApplications(
+            serviceCaches,
+            ListApplicationsRequest.newBuilder()
+                .setPageSize(1)
+                .setPageToken(first.getNextPageToken())
+                .build());
+    ListApplicationsResponse third =
+        TsunamiTestbedUtil.listApplications(
+            serviceCaches,
+            ListApplicationsRequest.newBuilder()
+                .setPageSize(1)
+                .setPageToken(second.getNextPageToken())
+                .build());
+
+    assertThat(first.getApplicationsList()).containsExactly("jupyter");
+    assertThat(second.getApplicationsList()).containsExactly("wordpress");
+    assertThat(third.getApplicationsList()).containsExactly("jupyter");
+    assertThat(third.getNextPageToken()).isEmpty();
+  }
+
+  @Test
+  public void listApplications_whenPageSizeIsZero_listsAllInKeyOrder() {
+    ImmutableList<ServiceCache> serviceCaches =
+        ImmutableList.of(serviceCache("team-b", "jupyter"), serviceCache("team-a", "mysql"));
+
+    ListApplicationsResponse response =
+        TsunamiTestbedUtil.listApplications(
+            serviceCaches, ListApplicationsRequest.getDefaultInstance());
+
+    assertThat(response.getApplicationsList()).containsExactly("mysql", "jupyter").inOrder();
+    assertThat(response.getNextPageToken()).isEmpty();
+  }
+
+  @Test
+  public void listApplications_whenLabelSelectorUnsupported_throwsInvalidArgument() {
+    StatusRuntimeException e =
+        assertThrows(
+            StatusRuntimeException.class,
+            () ->
+                TsunamiTestbedUtil.listApplications(
+                    ImmutableList.of(serviceCache("team-a", "jupyter")),
+                    ListApplicationsRequest.newBuilder()
+                        .setLabelSelector("app in (jupyter)")
+                        .build()));
+
+    assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.INVALID_ARGUMENT);
+  }
+
+  @Test
+  public void withTemplateValues_returnsCopyWithArgs() {
+    V1Job deployerJob =
+        new V1Job()
+            .metadata(new V1ObjectMeta().name("deployer"))
+            .spec(
+                new V1JobSpec()
+                    .template(
+                        new V1PodTemplateSpec()
+                            .spec(
+                                new V1PodSpec()
+                                    .addContainersItem(
+                                        new V1Container()
+                                            .name("deployer")
+                                            .addArgsItem("--app")
+                                            .addArgsItem("jupyter")
+                                            .resources(
+                                                new V1ResourceRequirements()
+                                                    .putLimitsItem(
+                                                        "memory", Quantity.fromString("64Mi")))))));
+
+    V1Job job =
+        TsunamiTestbedUtil.withTemplateValues(
+            deployerJob, ImmutableMap.of("jupyter_version", "notebook-6.0.3"));
+
+    V1Container container = job.getSpec().getTemplate().getSpec().getContainers().get(0);
+    assertThat(container.getArgs())
+        .containsExactly("--app", "jupyter", "--templateValue", "jupyter_version=notebook-6.0.3")
+        .inOrder();
+    assertThat(container.getResources().getLimits().get("memory"))
+        .isEqualTo(Quantity.fromString("64Mi"));
+    assertThat(deployerJob.getSpec().getTemplate().getSpec().getContainers().get(0).getArgs())
+        .containsExactly("--app", "jupyter");
+  }
+}
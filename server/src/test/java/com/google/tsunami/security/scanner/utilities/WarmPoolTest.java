@@ -0,0 +1,346 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.tsunami.security.scanner.utilities;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.BatchV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1DeploymentList;
+import io.kubernetes.client.openapi.models.V1Job;
+import io.kubernetes.client.openapi.models.V1JobCondition;
+import io.kubernetes.client.openapi.models.V1JobList;
+import io.kubernetes.client.openapi.models.V1JobStatus;
+import io.kubernetes.client.openapi.models.V1LoadBalancerIngress;
+import io.kubernetes.client.openapi.models.V1LoadBalancerStatus;
+import io.kubernetes.client.openapi.models.V1Namespace;
+import io.kubernetes.client.openapi.models.V1NamespaceList;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1PodList;
+import io.kubernetes.client.openapi.models.V1Service;
+import io.kubernetes.client.openapi.models.V1ServicePort;
+import io.kubernetes.client.openapi.models.V1ServiceSpec;
+import io.kubernetes.client.openapi.models.V1ServiceStatus;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import tsunami.security.scanner.utilities.KubeJavaClientUtil;
+import tsunami.security.scanner.utilities.RenderedManifestCache;
+
+@RunWith(JUnit4.class)
+public final class WarmPoolTest {
+
+  private static final String APPLICATION = "jupyter";
+  private static final String DEPLOYER_JOB =
+      "apiVersion: batch/v1\n"
+          + "kind: Job\n"
+          + "metadata:\n"
+          + "  name: deployer\n"
+          + "spec:\n"
+          + "  template:\n"
+          + "    spec:\n"
+          + "      containers:\n"
+          + "      - name: deployer\n"
+          + "        image: deployer\n"
+          + "        args: [\"--app\", \"${app}\", \"--namespace\", \"${namespace}\"]\n"
+          + "      restartPolicy: Never\n";
+  private static final String LEASE_ID_LABEL = "tsunami-testbed/lease-id";
+  private static final String LEASE_EXPIRES_AT_LABEL = "tsunami-testbed/lease-expires-at";
+  private static final long REFILL_INTERVAL_SECONDS = 3600;
+
+  @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Mock CoreV1Api mockCoreV1Api;
+  @Mock AppsV1Api mockAppsV1Api;
+  @Mock BatchV1Api mockBatchV1Api;
+
+  private final ApiClient apiClient = new ApiClient();
+  // Pool Services are added to the informer's indexer as the deployer creates them, without a
+  // watch.
+  private final SharedInformerFactory informerFactory = new SharedInformerFactory(apiClient);
+  private final ServiceCache serviceCache =
+      ServiceCache.forAllNamespaces(
+          informerFactory, new CoreV1Api(apiClient), WarmPool.SERVICE_LABEL_SELECTOR);
+  private WarmPool.Spec spec;
+  private WarmPool pool;
+
+  @Before
+  public void setUp() throws IOException, ApiException {
+    File deployerJob = folder.newFile("deployer-job.yaml");
+    Files.write(deployerJob.toPath(), DEPLOYER_JOB.getBytes(UTF_8));
+    spec = new WarmPool.Spec();
+    spec.application = APPLICATION;
+    spec.configPath = "/application";
+    spec.deployerJobPath = deployerJob.getPath();
+    spec.size = 1;
+
+    // Every created namespace gets the application's Service with an endpoint.
+    when(mockCoreV1Api.createNamespace(any(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              V1Namespace namespace = invocation.getArgument(0);
+              informerFactory
+                  .getExistingSharedIndexInformer(V1Service.class)
+                  .getIndexer()
+                  .add(service(namespace.getMetadata().getName()));
+              return namespace;
+            });
+    // The deployer job gets a uid derived from its namespace, and has succeeded when listed.
+    when(mockBatchV1Api.createNamespacedJob(any(), any(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              V1Job job = invocation.getArgument(1);
+              job.getMetadata().uid("uid-" + invocation.getArgument(0));
+              return job;
+            });
+    when(mockBatchV1Api.listNamespacedJob(
+            any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> new V1JobList().addItemsItem(succeededJob(invocation.getArgument(0))));
+    when(mockCoreV1Api.listNamespacedPod(
+            any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+        .thenReturn(new V1PodList());
+    when(mockAppsV1Api.listNamespacedDeployment(
+            any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+        .thenReturn(new V1DeploymentList());
+    when(mockCoreV1Api.readNamespace(any(), any(), any(), any()))
+        .thenAnswer(
+            invocation ->
+                new V1Namespace().metadata(new V1ObjectMeta().name(invocation.getArgument(0))));
+  }
+
+  @After
+  public void tearDown() {
+    if (pool != null) {
+      pool.stop();
+    }
+  }
+
+  private WarmPool newPool(long defaultLeaseSeconds) {
+    pool =
+        new WarmPool(
+            ImmutableList.of(spec),
+            mockCoreV1Api,
+            mockAppsV1Api,
+            mockBatchV1Api,
+            serviceCache,
+            new RenderedManifestCache(16, Duration.ofHours(1)),
+            REFILL_INTERVAL_SECONDS,
+            defaultLeaseSeconds);
+    return pool;
+  }
+
+  private static V1Service service(String namespace) {
+    return new V1Service()
+        .metadata(new V1ObjectMeta().namespace(namespace).name(APPLICATION))
+        .spec(new V1ServiceSpec().type("LoadBalancer").addPortsItem(new V1ServicePort().port(80)))
+        .status(
+            new V1ServiceStatus()
+                .loadBalancer(
+                    new V1LoadBalancerStatus()
+                        .addIngressItem(new V1LoadBalancerIngress().ip("10.0.0.1"))));
+  }
+
+  private static V1Job succeededJob(String namespace) {
+    return new V1Job()
+        .metadata(new V1ObjectMeta().namespace(namespace).name("deployer").uid("uid-" + namespace))
+        .status(
+            new V1JobStatus()
+                .addConditionsItem(new V1JobCondition().type("Complete").status("True")));
+  }
+
+  /** Refills the pool until an instance is ready, then leases it. */
+  private static AcquireApplicationResponse acquireWhenReady(WarmPool pool, long leaseSeconds)
+      throws InterruptedException {
+    for (int attempt = 0; ; attempt++) {
+      pool.refill();
+      try {
+        return pool.acquire(APPLICATION, "", leaseSeconds);
+      } catch (StatusRuntimeException e) {
+        if (attempt >= 100 || e.getStatus().getCode() != Status.Code.UNAVAILABLE) {
+          throw e;
+        }
+        Thread.sleep(20);
+      }
+    }
+  }
+
+  @Test
+  public void refill_provisionsMissingInstancesWithNeverReapedDeployments() throws ApiException {
+    spec.size = 2;
+    WarmPool pool = newPool(3600);
+
+    pool.refill();
+
+    verify(mockCoreV1Api, times(2)).createNamespace(any(), any(), any(), any());
+    verify(mockBatchV1Api, times(2))
+        .createNamespacedJob(
+            any(),
+            argThat(
+                job ->
+                    "0"
+                            .equals(
+                                job.getMetadata()
+                                    .getLabels()
+                                    .get(KubeJavaClientUtil.EXPIRES_AT_LABEL))
+                        && job.getMetadata()
+                            .getLabels()
+                            .containsKey(KubeJavaClientUtil.DEPLOYMENT_ID_LABEL)),
+            any(),
+            any(),
+            any());
+  }
+
+  @Test
+  public void acquire_whenNoInstanceReady_throwsUnavailable() {
+    WarmPool pool = newPool(3600);
+
+    StatusRuntimeException e =
+        assertThrows(StatusRuntimeException.class, () -> pool.acquire(APPLICATION, "", 0));
+
+    assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+  }
+
+  @Test
+  public void acquire_whenInstanceReady_recordsLeaseAndReturnsEndpoint() throws Exception {
+    WarmPool pool = newPool(3600);
+
+    AcquireApplicationResponse response = acquireWhenReady(pool, 0);
+
+    assertThat(response.getNamespace()).startsWith("pool-jupyter-");
+    assertThat(response.getServiceEndpoint().getIp()).isEqualTo("10.0.0.1");
+    assertThat(response.getServiceEndpoint().getPort()).isEqualTo("80");
+    assertThat(response.getLeaseExpireTime().getSeconds())
+        .isAtLeast(Instant.now().getEpochSecond() + 3500);
+    verify(mockCoreV1Api)
+        .replaceNamespace(
+            eq(response.getNamespace()),
+            argThat(
+                namespace ->
+                    response
+                        .getLeaseId()
+                        .equals(namespace.getMetadata().getLabels().get(LEASE_ID_LABEL))),
+            any(),
+            any(),
+            any());
+  }
+
+  @Test
+  public void acquire_whenInstanceLeased_refillsPool() throws Exception {
+    WarmPool pool = newPool(3600);
+
+    acquireWhenReady(pool, 0);
+
+    // The leased instance is replaced right away, in the background.
+    verify(mockCoreV1Api, timeout(5000).times(2)).createNamespace(any(), any(), any(), any());
+  }
+
+  @Test
+  public void release_deletesNamespaceOfLease() throws Exception {
+    WarmPool pool = newPool(3600);
+    AcquireApplicationResponse response = acquireWhenReady(pool, 0);
+
+    pool.release(response.getLeaseId());
+
+    verify(mockCoreV1Api, timeout(5000))
+        .deleteNamespace(eq(response.getNamespace()), any(), any(), any(), any(), any(), any());
+    StatusRuntimeException e =
+        assertThrows(StatusRuntimeException.class, () -> pool.release(response.getLeaseId()));
+    assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.NOT_FOUND);
+  }
+
+  @Test
+  public void refill_whenLeaseExpired_deletesNamespaceOfLease() throws Exception {
+    WarmPool pool = newPool(3600);
+    AcquireApplicationResponse response = acquireWhenReady(pool, 1);
+    verify(mockCoreV1Api, never())
+        .deleteNamespace(eq(response.getNamespace()), any(), any(), any(), any(), any(), any());
+
+    while (Instant.now().getEpochSecond() < response.getLeaseExpireTime().getSeconds()) {
+      Thread.sleep(50);
+    }
+    pool.refill();
+
+    verify(mockCoreV1Api)
+        .deleteNamespace(eq(response.getNamespace()), any(), any(), any(), any(), any(), any());
+  }
+
+  @Test
+  public void start_keepsUnexpiredLeasesAndDeletesOtherNamespaces() throws Exception {
+    long now = Instant.now().getEpochSecond();
+    when(mockCoreV1Api.listNamespace(any(), any(), any(), any(), any(), any(), any(), any(), any()))
+        .thenReturn(
+            new V1NamespaceList()
+                .addItemsItem(poolNamespace("pool-leased", "lease-1", now + 3600))
+                .addItemsItem(poolNamespace("pool-expired", "lease-2", now - 1))
+                .addItemsItem(poolNamespace("pool-unleased", null, 0)));
+    WarmPool pool = newPool(3600);
+
+    pool.start();
+
+    verify(mockCoreV1Api)
+        .deleteNamespace(eq("pool-expired"), any(), any(), any(), any(), any(), any());
+    verify(mockCoreV1Api)
+        .deleteNamespace(eq("pool-unleased"), any(), any(), any(), any(), any(), any());
+    verify(mockCoreV1Api, never())
+        .deleteNamespace(eq("pool-leased"), any(), any(), any(), any(), any(), any());
+    pool.release("lease-1");
+    verify(mockCoreV1Api, timeout(5000))
+        .deleteNamespace(eq("pool-leased"), any(), any(), any(), any(), any(), any());
+  }
+
+  private static V1Namespace poolNamespace(String name, String leaseId, long expiresAt) {
+    V1ObjectMeta metadata =
+        new V1ObjectMeta().name(name).putLabelsItem("managed-by", "tsunami-testbed-warm-pool");
+    if (leaseId != null) {
+      metadata
+          .putLabelsItem(LEASE_ID_LABEL, leaseId)
+          .putLabelsItem(LEASE_EXPIRES_AT_LABEL, Long.toString(expiresAt));
+    }
+    return new V1Namespace().metadata(metadata);
+  }
+}